@@ -0,0 +1,201 @@
+package part01;
+
+import java.util.Locale;
+
+/**
+ * The Benchmark class measures the average time one operation takes, in the
+ * same way as a JMH benchmark in average time mode. The operation is run for a
+ * number of warmup iterations, so the JIT compiler has compiled it, and then
+ * for a number of measured iterations. Each iteration runs the operation for a
+ * fixed time in batches, reading the clock once per batch rather than once per
+ * call, and reports the nanoseconds per call
+ */
+public class Benchmark {
+
+	/**
+	 * An operation being measured
+	 */
+	public interface Operation {
+		/**
+		 * Run the operation once
+		 *
+		 * @param invocation The number of times the operation has already run in
+		 *                   this iteration, for cycling through inputs
+		 * @return A value computed from the work done, which is kept so the work
+		 *         cannot be removed as dead code
+		 */
+		long run(int invocation);
+	}
+
+	// Batches shorter than this are doubled, so reading the clock costs little
+	private static final long MIN_BATCH_NANOS = 10000;
+
+	// Student's t for a two sided 99.9% confidence interval, as JMH reports,
+	// by degrees of freedom up to 30. Larger samples use the normal value
+	private static final double[] T_999 = { 0, 636.62, 31.60, 12.92, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781,
+			4.587, 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792, 3.768, 3.745,
+			3.725, 3.707, 3.690, 3.674, 3.659, 3.646 };
+
+	// Sum of every result, so no operation can be optimised away
+	private static volatile long sink;
+
+	private String name; // The name of the benchmark, such as ImageManager.searchId
+	private String size; // The catalogue size it ran against, or null if none
+	private Operation operation; // The operation being measured
+	private double[] scores; // Nanoseconds per call of each measured iteration
+
+	/**
+	 * Constructor for the Benchmark class
+	 *
+	 * @param name      The name of the benchmark
+	 * @param size      The catalogue size the operation runs against, or null if
+	 *                  it does not depend on one
+	 * @param operation The operation to measure
+	 */
+	public Benchmark(String name, int size, Operation operation) {
+		this.name = name;
+		this.size = size < 0 ? null : Integer.toString(size);
+		this.operation = operation;
+	}
+
+	/**
+	 * Warm up and then measure the operation
+	 *
+	 * @param warmups        The number of iterations to run before measuring
+	 * @param iterations     The number of iterations to measure
+	 * @param iterationNanos How long each iteration runs for, in nanoseconds
+	 */
+	public void run(int warmups, int iterations, long iterationNanos) {
+		for (int i = 0; i < warmups; i++) {
+			measure(iterationNanos);
+		}
+
+		this.scores = new double[iterations];
+		for (int i = 0; i < iterations; i++) {
+			this.scores[i] = measure(iterationNanos);
+		}
+	}
+
+	/**
+	 * Get the name of the benchmark
+	 *
+	 * @return The name of the benchmark
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Get the catalogue size the benchmark ran against
+	 *
+	 * @return The size, or null if the operation does not depend on one
+	 */
+	public String getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Get the mean time of the measured iterations
+	 *
+	 * @return The mean nanoseconds per call
+	 */
+	public double getScore() {
+		double total = 0;
+		for (double score : this.scores) {
+			total += score;
+		}
+		return total / this.scores.length;
+	}
+
+	/**
+	 * Get the half width of the 99.9% confidence interval of the score
+	 *
+	 * @return The error in nanoseconds per call, or NaN if only one iteration was
+	 *         measured
+	 */
+	public double getScoreError() {
+		int n = this.scores.length;
+		if (n < 2) {
+			return Double.NaN;
+		}
+
+		double mean = getScore();
+		double squares = 0;
+		for (double score : this.scores) {
+			squares += (score - mean) * (score - mean);
+		}
+		double deviation = Math.sqrt(squares / (n - 1));
+
+		double t = n - 1 < T_999.length ? T_999[n - 1] : 3.291;
+		return t * deviation / Math.sqrt(n);
+	}
+
+	/**
+	 * Return the result in the format of one entry of the JMH JSON output
+	 *
+	 * @param indent The indentation of the entry
+	 * @return A JSON object describing the benchmark and its scores
+	 */
+	public String toJson(String indent) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(indent).append("{\n");
+		sb.append(indent).append("    \"benchmark\" : \"").append(this.name).append("\",\n");
+		sb.append(indent).append("    \"mode\" : \"avgt\",\n");
+		sb.append(indent).append("    \"measurementIterations\" : ").append(this.scores.length).append(",\n");
+		if (this.size != null) {
+			sb.append(indent).append("    \"params\" : {\n");
+			sb.append(indent).append("        \"size\" : \"").append(this.size).append("\"\n");
+			sb.append(indent).append("    },\n");
+		}
+		sb.append(indent).append("    \"primaryMetric\" : {\n");
+		sb.append(indent).append("        \"score\" : ").append(number(getScore())).append(",\n");
+		sb.append(indent).append("        \"scoreError\" : ").append(number(getScoreError())).append(",\n");
+		sb.append(indent).append("        \"scoreUnit\" : \"ns/op\",\n");
+		sb.append(indent).append("        \"rawData\" : [\n");
+		sb.append(indent).append("            [\n");
+		for (int i = 0; i < this.scores.length; i++) {
+			sb.append(indent).append("                ").append(number(this.scores[i]))
+					.append(i < this.scores.length - 1 ? ",\n" : "\n");
+		}
+		sb.append(indent).append("            ]\n");
+		sb.append(indent).append("        ]\n");
+		sb.append(indent).append("    }\n");
+		sb.append(indent).append("}");
+		return sb.toString();
+	}
+
+	/*
+	 * Run the operation for a time, returning the nanoseconds per call
+	 */
+	private double measure(long nanos) {
+		long calls = 0;
+		long result = 0;
+		int batch = 1;
+
+		long start = System.nanoTime();
+		long end = start + nanos;
+		long now = start;
+		while (now < end) {
+			long batchStart = now;
+			for (int i = 0; i < batch; i++) {
+				result += this.operation.run((int) (calls + i));
+			}
+			calls += batch;
+			now = System.nanoTime();
+
+			if (now - batchStart < MIN_BATCH_NANOS && batch < (1 << 20)) {
+				batch <<= 1;
+			}
+		}
+
+		sink += result;
+		return (double) (now - start) / calls;
+	}
+
+	/*
+	 * Format a number for JSON, which has no NaN
+	 */
+	private static String number(double value) {
+		return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", value);
+	}
+}
@@ -0,0 +1,265 @@
+package part01;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ConcurrentImageManagerStress class adds images to a
+ * ConcurrentImageManager from several threads while others search it, and
+ * checks that every search sees a consistent collection: an image is found by
+ * ID as soon as its add has returned, albums are in date order, and the
+ * collection never shrinks. Writers take their IDs from ImageRecord as the
+ * application does, half through the constructor and half in blocks as a bulk
+ * load does, and once they finish every ID must be unique and in the
+ * collection exactly once. It prints how many adds and searches were made each
+ * second, and exits with status 1 if any check failed.
+ *
+ * Arguments, all optional:
+ * -writers 4       Threads adding images
+ * -readers 4       Threads searching
+ * -images 200000   Images added by each writer
+ * -stripes 8       Stripes of the manager
+ */
+public class ConcurrentImageManagerStress {
+
+	private static final String[] SUBJECTS = { "Mountains", "Harbour", "Castle", "Red Kite", "Sunset", "Market",
+			"Lighthouse", "Bridge" };
+
+	private static final int FIRST_DAY = (int) LocalDate.of(2000, 1, 1).toEpochDay();
+	private static final int DAYS = 9131;
+
+	// Number of IDs a bulk writer reserves at a time
+	private static final int BLOCK = 64;
+
+	private ConcurrentImageManager manager;
+	private int writers = 4;
+	private int readers = 4;
+	private int images = 200000;
+
+	// IDs of the images each writer added, and how many of them are known to
+	// be in the collection
+	private int[][] ids;
+	private AtomicIntegerArray added;
+
+	private volatile boolean isWriting = true;
+	private AtomicLong searches = new AtomicLong();
+	private AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Run the stress test
+	 *
+	 * @param args The arguments described by the class
+	 * @throws InterruptedException If the test is interrupted
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		ConcurrentImageManagerStress stress = new ConcurrentImageManagerStress();
+		int stripes = 8;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			int value = Integer.parseInt(args[i + 1]);
+			switch (args[i]) {
+			case "-writers":
+				stress.writers = value;
+				break;
+			case "-readers":
+				stress.readers = value;
+				break;
+			case "-images":
+				stress.images = value;
+				break;
+			case "-stripes":
+				stripes = value;
+				break;
+			default:
+				System.err.println("Unknown argument: " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		stress.manager = new ConcurrentImageManager(stripes);
+		if (!stress.run()) {
+			System.exit(1);
+		}
+	}
+
+	/*
+	 * Run the writers and readers to completion, then check the final
+	 * collection, returning true if every check passed
+	 */
+	private boolean run() throws InterruptedException {
+		this.ids = new int[this.writers][this.images];
+		this.added = new AtomicIntegerArray(this.writers);
+		ExecutorService executor = Executors.newFixedThreadPool(this.writers + this.readers);
+
+		long started = System.nanoTime();
+		ArrayList<Future<?>> writing = new ArrayList<Future<?>>();
+		for (int writer = 0; writer < this.writers; writer++) {
+			int id = writer;
+			writing.add(executor.submit(() -> write(id)));
+		}
+		ArrayList<Future<?>> reading = new ArrayList<Future<?>>();
+		for (int reader = 0; reader < this.readers; reader++) {
+			int seed = reader;
+			reading.add(executor.submit(() -> read(seed)));
+		}
+
+		try {
+			for (Future<?> future : writing) {
+				future.get();
+			}
+			this.isWriting = false;
+			for (Future<?> future : reading) {
+				future.get();
+			}
+		} catch (ExecutionException ex) {
+			ex.getCause().printStackTrace();
+			this.failures.incrementAndGet();
+		} finally {
+			this.isWriting = false;
+			executor.shutdownNow();
+		}
+		double seconds = (System.nanoTime() - started) / 1e9;
+
+		// Every image must be in the collection once the writers have finished
+		int total = this.writers * this.images;
+		check(this.manager.size() == total, "Expected " + total + " images but found " + this.manager.size());
+		ImageAlbum all = this.manager.getAllImages();
+		check(all.size() == total, "Expected " + total + " images in the album but found " + all.size());
+		checkDateOrder(all);
+		checkIds(all);
+
+		System.out.println(String.format("%d writers added %d images in %.2f s (%.0f adds/s)", this.writers, total,
+				seconds, total / seconds));
+		System.out.println(String.format("%d readers made %d searches (%.0f searches/s)", this.readers,
+				this.searches.get(), this.searches.get() / seconds));
+		System.out.println(this.failures.get() == 0 ? "All checks passed" : this.failures.get() + " checks failed");
+		return this.failures.get() == 0;
+	}
+
+	/*
+	 * Add the images of one writer, recording the ID of each once it is added.
+	 * Even writers create images through the constructor, taking one ID each,
+	 * and odd writers reserve blocks of IDs as a bulk load does
+	 */
+	private void write(int writer) {
+		int next = 0;
+		int reserved = 0;
+		for (int i = 0; i < this.images; i++) {
+			int seed = writer * this.images + i;
+			int day = FIRST_DAY + (int) ((seed * 2654435761L) % DAYS);
+			String subject = SUBJECTS[seed & 7];
+			ImageType genre = ImageType.values()[seed % ImageType.values().length];
+
+			ImageRecord image;
+			if ((writer & 1) == 0) {
+				image = ImageRecord.create(subject + " " + seed, "A view of the " + subject, genre.name(),
+						LocalDate.ofEpochDay(day).toString(), seed + ".png").getImage();
+			} else {
+				if (reserved == 0) {
+					next = ImageRecord.reserveIds(BLOCK);
+					reserved = BLOCK;
+				}
+				image = new ImageRecord(next++, subject + " " + seed, "A view of the " + subject, genre,
+						LocalDate.ofEpochDay(day), seed + ".png");
+				reserved--;
+			}
+
+			this.manager.addImage(image);
+			this.ids[writer][i] = image.getId();
+			this.added.set(writer, i + 1);
+		}
+	}
+
+	/*
+	 * Search the collection until the writers finish, checking each result
+	 */
+	private void read(int seed) {
+		int round = seed;
+		int lastSize = 0;
+		do {
+			// An image whose add has returned must be found by its ID
+			int writer = round % this.writers;
+			int count = this.added.get(writer);
+			if (count > 0) {
+				int id = this.ids[writer][count - 1];
+				ImageRecord image = this.manager.searchId(id);
+				check(image != null && image.getId() == id, "Image " + id + " was added but not found");
+				this.searches.incrementAndGet();
+			}
+
+			int size = this.manager.size();
+			check(size >= lastSize, "The collection shrank from " + lastSize + " to " + size);
+			lastSize = size;
+
+			// Walk the first images of an album, as the UI does, in date order
+			ImageAlbum album = (round & 1) == 0 ? this.manager.searchTitle(SUBJECTS[round & 7])
+					: this.manager.searchGenre(ImageType.values()[round % ImageType.values().length]);
+			checkDateOrder(album, 256);
+			this.searches.incrementAndGet();
+
+			round += this.readers;
+		} while (this.isWriting);
+	}
+
+	/*
+	 * Check that no two writers were given the same ID, and that the album holds
+	 * every ID added exactly once
+	 */
+	private void checkIds(ImageAlbum all) {
+		int[] expected = new int[this.writers * this.images];
+		for (int writer = 0; writer < this.writers; writer++) {
+			System.arraycopy(this.ids[writer], 0, expected, writer * this.images, this.images);
+		}
+		Arrays.sort(expected);
+		for (int i = 1; i < expected.length; i++) {
+			if (expected[i] == expected[i - 1]) {
+				check(false, "ID " + expected[i] + " was given to more than one image");
+			}
+		}
+
+		int[] found = new int[all.size()];
+		for (int i = 0; i < found.length; i++) {
+			found[i] = all.get(i).getId();
+		}
+		Arrays.sort(found);
+		check(Arrays.equals(found, expected), "The collection does not hold every added ID exactly once");
+	}
+
+	/*
+	 * Check that every image of an album is in date order
+	 */
+	private void checkDateOrder(ImageAlbum album) {
+		checkDateOrder(album, album.size());
+	}
+
+	/*
+	 * Check that the first images of an album are in date order
+	 */
+	private void checkDateOrder(ImageAlbum album, int limit) {
+		LocalDate previous = null;
+		int count = Math.min(limit, album.size());
+		for (int i = 0; i < count; i++) {
+			LocalDate date = album.get(i).getDateTaken();
+			if (previous != null && date.isBefore(previous)) {
+				check(false, "Image " + album.get(i).getId() + " of " + date + " follows one of " + previous);
+				return;
+			}
+			previous = date;
+		}
+	}
+
+	/*
+	 * Count a failed check, printing the first few
+	 */
+	private void check(boolean isPassed, String message) {
+		if (!isPassed && this.failures.incrementAndGet() <= 10) {
+			System.err.println(message);
+		}
+	}
+}
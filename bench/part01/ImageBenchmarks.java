@@ -0,0 +1,521 @@
+package part01;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The ImageBenchmarks class runs the benchmarks of the part01 domain layer
+ * against synthetic catalogues of each size asked for, and writes the results
+ * in the JSON format of JMH so runs from different commits can be compared.
+ *
+ * Arguments, all optional:
+ * -sizes 10,1000     Catalogue sizes to run against (default 10 to 10000000)
+ * -filter regex      Only run the benchmarks whose name matches
+ * -wi 5              Warmup iterations of each benchmark
+ * -i 10              Measured iterations of each benchmark
+ * -time 200          Milliseconds each iteration runs for
+ * -o results.json    File to write the results to
+ * -baseline old.json Compare with an earlier run, exiting with status 1 if any
+ *                    benchmark got slower by more than the threshold
+ * -threshold 10      Percentage slowdown counted as a regression
+ */
+public class ImageBenchmarks {
+
+	// Seed of the synthetic catalogues, so every run searches the same images
+	private static final long SEED = 20240501L;
+
+	// Words the synthetic titles and descriptions are made from
+	private static final String[] PLACES = { "Mourne", "Belfast", "Lanyon", "Giant's Causeway", "Strangford",
+			"Armagh", "Fermanagh", "Derry", "Antrim", "Donegal", "Galway", "Kerry", "Cork", "Dublin",
+			"D\u00FAn Laoghaire", "T\u00EDr Chonaill" };
+
+	// Place names as a user might type them, differing in case and accents
+	private static final String[] TYPED_PLACES = { "mourne", "BELFAST", "lanyon", "giant's causeway", "STRANGFORD",
+			"armagh", "Fermanagh", "derry", "ANTRIM", "donegal", "galway", "KERRY", "cork", "dublin", "dun laoghaire",
+			"TIR CHONAILL" };
+	private static final String[] SUBJECTS = { "Mountains", "Harbour", "Castle", "Red Kite", "Sunset", "Market",
+			"Stadium", "Cathedral", "Lough", "Forest", "Galaxy", "Apples", "Bridge", "Beach", "Portrait", "Skyline" };
+	private static final String[] ADJECTIVES = { "misty", "bright", "quiet", "crowded", "frozen", "golden",
+			"stormy", "calm" };
+
+	// Genre strings as a user might type them, including ones that name no genre
+	private static final String[] GENRE_NAMES = { "Astronomy", "ARCHITECTURE", "sport", "Landscape", "portrait",
+			"NATURE", "Aerial", "food", "Other", "Macro", "", "Street", "astronomy", "LANDSCAPE", "Wildlife",
+			"Food" };
+
+	// Catalogue images are taken on days from 2000-01-01 over about 25 years
+	private static final int FIRST_DAY = (int) LocalDate.of(2000, 1, 1).toEpochDay();
+	private static final int DAYS = 9131;
+
+	// Record-backed albums hold an ImageRecord per image, so are only built up to this
+	private static final int MAX_RECORD_ALBUM = 1000000;
+
+	private static final ImageType[] GENRES = ImageType.values();
+
+	// Benchmarks that need a catalogue, which is not built if none of them run
+	private static final String[] CATALOGUE_BENCHMARKS = { "ImageManager.searchId", "ImageManager.searchIdLinear",
+			"ImageManager.searchTitle",
+			"ImageManager.searchTitleShort", "ImageManager.searchTitleFuzzy", "ImageManager.completeTitle",
+			"ImageManager.searchTitleIgnoreCase", "ImageManager.searchTitleLowerCase", "ImageManager.searchDescription",
+			"ImageManager.searchDescriptionIgnoreCase", "ImageManager.searchRanked", "ImageManager.searchGenre",
+			"ImageManager.searchDates", "ImageManager.search", "ImageManager.getAllImages", "ImageAlbum.navigate",
+			"ImageAlbum.sort", "ImageAlbum.navigateList" };
+
+	// Prefix of the parallel scan benchmarks, which end with their thread count
+	private static final String SCAN_BENCHMARK = "ImageScanTask.scanThreads";
+
+	private String filter; // Pattern of the benchmarks to run, or null for all
+	private int warmups = 5;
+	private int iterations = 10;
+	private long iterationNanos = 200000000L;
+	private ArrayList<Benchmark> results = new ArrayList<Benchmark>();
+
+	/**
+	 * Run the benchmarks
+	 *
+	 * @param args The arguments described by the class
+	 * @throws IOException If the results or baseline cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		int[] sizes = { 10, 1000, 100000, 1000000, 10000000 };
+		Path output = Paths.get("bench-results.json");
+		Path baseline = null;
+		double threshold = 10;
+
+		ImageBenchmarks benchmarks = new ImageBenchmarks();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "-sizes":
+				String[] parts = value.split(",");
+				sizes = new int[parts.length];
+				for (int j = 0; j < parts.length; j++) {
+					sizes[j] = Integer.parseInt(parts[j].trim());
+				}
+				break;
+			case "-filter":
+				benchmarks.filter = value;
+				break;
+			case "-wi":
+				benchmarks.warmups = Integer.parseInt(value);
+				break;
+			case "-i":
+				benchmarks.iterations = Integer.parseInt(value);
+				break;
+			case "-time":
+				benchmarks.iterationNanos = Long.parseLong(value) * 1000000L;
+				break;
+			case "-o":
+				output = Paths.get(value);
+				break;
+			case "-baseline":
+				baseline = Paths.get(value);
+				break;
+			case "-threshold":
+				threshold = Double.parseDouble(value);
+				break;
+			default:
+				System.err.println("Unknown argument: " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		benchmarks.runRecordBenchmarks();
+		for (int size : sizes) {
+			benchmarks.runCatalogueBenchmarks(size);
+		}
+
+		benchmarks.write(output);
+		System.out.println("Results written to " + output);
+
+		if (baseline != null && benchmarks.compare(baseline, threshold) > 0) {
+			System.exit(1);
+		}
+	}
+
+	/*
+	 * Run the benchmarks that do not depend on a catalogue
+	 */
+	private void runRecordBenchmarks() {
+		run("ImageRecord.construct", -1, i -> {
+			try {
+				return new ImageRecord("Mourne Mountains", "A misty view of the Mournes", "LANDSCAPE", "2023-05-14",
+						"Mournes.png").getId();
+			} catch (Exception ex) {
+				throw new IllegalStateException(ex);
+			}
+		});
+		run("ImageRecord.constructInvalid", -1, i -> {
+			try {
+				return new ImageRecord("", "A misty view of the Mournes", "LANDSCAPE", "2023-02-30", "").getId();
+			} catch (Exception ex) {
+				return ex.getMessage().length();
+			}
+		});
+		run("ImageRecord.create", -1, i -> ImageRecord
+				.create("Mourne Mountains", "A misty view of the Mournes", "LANDSCAPE", "2023-05-14", "Mournes.png")
+				.getErrors());
+		run("ImageRecord.createInvalid", -1,
+				i -> ImageRecord.create("", "A misty view of the Mournes", "LANDSCAPE", "2023-02-30", "").getErrors());
+
+		ImageRecord record = new ImageRecord();
+		String[] upper = new String[GENRES.length];
+		for (int j = 0; j < upper.length; j++) {
+			upper[j] = GENRES[j].name();
+		}
+		run("ImageType.setGenre", -1, i -> record.setGenre(GENRE_NAMES[i & (GENRE_NAMES.length - 1)]).ordinal());
+		run("ImageType.valueOf", -1, i -> ImageType.valueOf(upper[(i & Integer.MAX_VALUE) % upper.length]).ordinal());
+
+		// Dates are cycled through so the JIT compiler cannot fold a constant parse
+		String[] dates = new String[16];
+		String[] invalid = new String[16];
+		for (int j = 0; j < dates.length; j++) {
+			dates[j] = LocalDate.ofEpochDay(FIRST_DAY + j * 571).toString();
+			invalid[j] = j % 2 == 0 ? (2001 + j) + "-02-30" : (2001 + j) + "/05/14";
+		}
+		run("ImageDates.parse", -1, i -> ImageDates.parse(dates[i & (dates.length - 1)]));
+		run("ImageDates.parseInvalid", -1, i -> ImageDates.parse(invalid[i & (invalid.length - 1)]));
+
+		if (!anyMatch("ImageHashes.dHash")) {
+			return;
+		}
+
+		// A photo sized image of random noise over a gradient
+		Random random = new Random(SEED);
+		BufferedImage photo = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < photo.getHeight(); y++) {
+			for (int x = 0; x < photo.getWidth(); x++) {
+				int level = Math.min(255, (x + y) / 7 + random.nextInt(64));
+				photo.setRGB(x, y, (level << 16) | (level << 8) | (255 - level));
+			}
+		}
+		run("ImageHashes.dHash", -1, i -> ImageHashes.dHash(photo));
+	}
+
+	/*
+	 * Build a synthetic catalogue of a size, then run the benchmarks that search
+	 * and navigate it
+	 */
+	private void runCatalogueBenchmarks(int size) {
+		if (!anyMatch(CATALOGUE_BENCHMARKS) && !anyMatch(scanBenchmarks())) {
+			return;
+		}
+
+		System.out.println("Building a catalogue of " + size + " images");
+		ImageManager manager = catalogue(size);
+		Random random = new Random(SEED);
+
+		// IDs to look up, a few of which are not in the catalogue
+		int first = manager.getColumns().getId(0);
+		int[] ids = new int[1024];
+		for (int j = 0; j < ids.length; j++) {
+			ids[j] = first + random.nextInt(size + size / 16 + 1);
+		}
+
+		// Titles misspelt by swapping two letters and dropping another
+		String[] misspelt = new String[64];
+		for (int j = 0; j < misspelt.length; j++) {
+			char[] title = manager.getColumns().getTitle(random.nextInt(size)).toCharArray();
+			int swap = random.nextInt(title.length - 1);
+			char c = title[swap];
+			title[swap] = title[swap + 1];
+			title[swap + 1] = c;
+			int drop = random.nextInt(title.length);
+			misspelt[j] = new String(title, 0, drop) + new String(title, drop + 1, title.length - drop - 1);
+		}
+
+		// Date ranges of about a month, spread over the catalogue
+		LocalDate[] starts = new LocalDate[64];
+		for (int j = 0; j < starts.length; j++) {
+			starts[j] = LocalDate.ofEpochDay(FIRST_DAY + random.nextInt(DAYS - 30));
+		}
+
+		run("ImageManager.searchId", size, i -> {
+			ImageRecord image = manager.searchId(ids[i & (ids.length - 1)]);
+			return image == null ? -1 : image.getId();
+		});
+		run("ImageManager.searchIdLinear", size, i -> searchIdLinear(manager, ids[i & (ids.length - 1)]));
+		run("ImageManager.searchTitle", size, i -> manager.searchTitle(PLACES[i & (PLACES.length - 1)]).size());
+		run("ImageManager.searchTitleShort", size,
+				i -> manager.searchTitle(SUBJECTS[i & (SUBJECTS.length - 1)].substring(0, 2)).size());
+		run("ImageManager.searchTitleFuzzy", size,
+				i -> manager.searchTitleFuzzy(misspelt[i & (misspelt.length - 1)], 10).size());
+		run("ImageManager.completeTitle", size, i -> {
+			// Complete each place as it is typed, one to four characters in
+			String place = TYPED_PLACES[(i >>> 2) & (TYPED_PLACES.length - 1)];
+			return manager.completeTitle(place.substring(0, 1 + (i & 3)), 10).size();
+		});
+		run("ImageManager.searchTitleIgnoreCase", size,
+				i -> manager.searchTitle(TYPED_PLACES[i & (TYPED_PLACES.length - 1)], true).size());
+		run("ImageManager.searchTitleLowerCase", size,
+				i -> searchLowerCase(manager, TYPED_PLACES[i & (TYPED_PLACES.length - 1)]));
+		run("ImageManager.searchDescription", size,
+				i -> manager.searchDescription(ADJECTIVES[i & (ADJECTIVES.length - 1)] + " view").size());
+		run("ImageManager.searchDescriptionIgnoreCase", size,
+				i -> manager.searchDescription("View of the " + SUBJECTS[i & (SUBJECTS.length - 1)], true).size());
+		run("ImageManager.searchRanked", size, i -> {
+			// Words from the titles and descriptions together, as a user might type them
+			String words = ADJECTIVES[i & (ADJECTIVES.length - 1)] + " "
+					+ TYPED_PLACES[(i >>> 3) & (TYPED_PLACES.length - 1)] + " "
+					+ SUBJECTS[(i >>> 7) & (SUBJECTS.length - 1)];
+			return manager.searchRanked(words, 10).size();
+		});
+		run("ImageManager.searchGenre", size, i -> manager.searchGenre(GENRES[(i & 0xFF) % GENRES.length]).size());
+		run("ImageManager.searchDates", size, i -> {
+			LocalDate start = starts[i & (starts.length - 1)];
+			return manager.searchDates(start, start.plusDays(30), true).size();
+		});
+		run("ImageManager.search", size, i -> {
+			LocalDate start = starts[i & (starts.length - 1)];
+			return manager.search(ImageQuery.and(ImageQuery.genre(GENRES[(i & 0xFF) % GENRES.length]),
+					ImageQuery.dates(start, start.plusDays(365), true),
+					ImageQuery.title(SUBJECTS[i & (SUBJECTS.length - 1)]))).size();
+		});
+		run("ImageManager.getAllImages", size, i -> manager.getAllImages().getFirst().getId());
+
+		// Scan for a short title on pools of one thread up to one per processor,
+		// splitting the catalogue into one range per thread as a full scan does
+		ImageQuery scanned = ImageQuery.title(SUBJECTS[0].substring(0, 2));
+		for (int threads : scanThreads()) {
+			if (!anyMatch(SCAN_BENCHMARK + threads)) {
+				continue;
+			}
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				run(SCAN_BENCHMARK + threads, size, i -> pool
+						.invoke(new ImageScanTask(manager.getColumns(), scanned, 0, size, size / threads + 1)).length);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		ImageAlbum lazy = manager.getAllImages();
+		run("ImageAlbum.navigate", size, i -> next(lazy).getId());
+
+		if (size <= MAX_RECORD_ALBUM && anyMatch("ImageAlbum.sort", "ImageAlbum.navigateList")) {
+			ArrayList<ImageRecord> shuffled = new ArrayList<ImageRecord>(lazy.getAlbum());
+			Collections.shuffle(shuffled, random);
+			run("ImageAlbum.sort", size, i -> new ImageAlbum(shuffled).size());
+
+			ImageAlbum list = new ImageAlbum(shuffled);
+			run("ImageAlbum.navigateList", size, i -> next(list).getId());
+		}
+	}
+
+	/*
+	 * Build a catalogue of synthetic images, appending them straight to the
+	 * column store and indexing them in one pass as a bulk load does
+	 */
+	static ImageManager catalogue(int size) {
+		ImageManager manager = new ImageManager();
+		ImageColumns columns = manager.getColumns();
+		Random random = new Random(SEED);
+
+		int id = ImageRecord.reserveIds(size);
+		for (int i = 0; i < size; i++) {
+			String place = PLACES[random.nextInt(PLACES.length)];
+			String subject = SUBJECTS[random.nextInt(SUBJECTS.length)];
+			String adjective = ADJECTIVES[random.nextInt(ADJECTIVES.length)];
+
+			// Numbering the titles makes most of them distinct, as in a real catalogue
+			String title = place + " " + subject + " " + random.nextInt(1000);
+			columns.add(id + i, title, "A " + adjective + " view of the " + subject + " at " + place,
+					(byte) random.nextInt(GENRES.length), FIRST_DAY + random.nextInt(DAYS), "image" + i + ".png");
+		}
+
+		manager.storeImages(0);
+		return manager;
+	}
+
+	/*
+	 * Get the thread counts the parallel scan is benchmarked with, doubling from
+	 * one up to the number of processors
+	 */
+	private static ArrayList<Integer> scanThreads() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		ArrayList<Integer> threads = new ArrayList<Integer>();
+		for (int count = 1; count < processors; count <<= 1) {
+			threads.add(count);
+		}
+		threads.add(processors);
+		return threads;
+	}
+
+	/*
+	 * Get the names of the parallel scan benchmarks
+	 */
+	private static String[] scanBenchmarks() {
+		ArrayList<Integer> threads = scanThreads();
+		String[] names = new String[threads.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = SCAN_BENCHMARK + threads.get(i);
+		}
+		return names;
+	}
+
+	/*
+	 * Find an ID by checking every image in turn, as a baseline for lookups
+	 * through the ID index
+	 */
+	private static int searchIdLinear(ImageManager manager, int id) {
+		ImageColumns columns = manager.getColumns();
+		for (int position = 0; position < columns.size(); position++) {
+			if (columns.getId(position) == id) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Search the titles ignoring case by lowering every title for each query, as
+	 * a baseline for searches over the folded titles stored when images are added
+	 */
+	private static int searchLowerCase(ImageManager manager, String str) {
+		ImageColumns columns = manager.getColumns();
+		String lower = str.toLowerCase();
+
+		int count = 0;
+		for (int position = 0; position < columns.size(); position++) {
+			if (columns.getTitle(position).toLowerCase().contains(lower)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Move to the next image of an album, going back to the first at the end
+	 */
+	private static ImageRecord next(ImageAlbum album) {
+		ImageRecord image = album.getNext();
+		return image != null ? image : album.getFirst();
+	}
+
+	/*
+	 * Run a benchmark if it matches the filter, and print its result
+	 */
+	private void run(String name, int size, Benchmark.Operation operation) {
+		if (!anyMatch(name)) {
+			return;
+		}
+
+		Benchmark benchmark = new Benchmark(name, size, operation);
+		benchmark.run(this.warmups, this.iterations, this.iterationNanos);
+		this.results.add(benchmark);
+
+		System.out.println(String.format(Locale.ROOT, "%-44s %10s %14.1f +- %.1f ns/op", name,
+				size < 0 ? "" : Integer.toString(size), benchmark.getScore(), benchmark.getScoreError()));
+	}
+
+	/*
+	 * Check whether any of the benchmark names match the filter
+	 */
+	private boolean anyMatch(String... names) {
+		if (this.filter == null) {
+			return true;
+		}
+
+		Pattern pattern = Pattern.compile(this.filter);
+		for (String name : names) {
+			if (pattern.matcher(name).find()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Write the results as a JMH style JSON array
+	 */
+	private void write(Path path) throws IOException {
+		StringBuilder sb = new StringBuilder("[\n");
+		for (int i = 0; i < this.results.size(); i++) {
+			sb.append(this.results.get(i).toJson("    ")).append(i < this.results.size() - 1 ? ",\n" : "\n");
+		}
+		sb.append("]\n");
+		Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/*
+	 * Compare the results with an earlier run, printing the change of each
+	 * benchmark in both, and return the number that got slower than the
+	 * threshold allows. A slowdown within the error of both runs is only noise,
+	 * so it is not counted
+	 */
+	private int compare(Path baseline, double threshold) throws IOException {
+		HashMap<String, double[]> scores = readScores(baseline);
+
+		int regressions = 0;
+		System.out.println("Compared with " + baseline + ":");
+		for (Benchmark benchmark : this.results) {
+			double[] before = scores.get(key(benchmark.getName(), benchmark.getSize()));
+			if (before == null || before[0] <= 0) {
+				continue;
+			}
+
+			double change = (benchmark.getScore() / before[0] - 1) * 100;
+			boolean isRegression = change > threshold
+					&& benchmark.getScore() - error(benchmark.getScoreError()) > before[0] + error(before[1]);
+			if (isRegression) {
+				regressions++;
+			}
+			System.out.println(String.format(Locale.ROOT, "%-44s %10s %+8.1f%%%s", benchmark.getName(),
+					benchmark.getSize() == null ? "" : benchmark.getSize(), change,
+					isRegression ? "  REGRESSION" : ""));
+		}
+
+		System.out.println(regressions + " benchmark(s) slower by more than " + threshold + "%");
+		return regressions;
+	}
+
+	/*
+	 * Read the score and score error of each benchmark and size from a JMH style
+	 * JSON file
+	 */
+	private static HashMap<String, double[]> readScores(Path path) throws IOException {
+		String json = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+
+		// Each entry names its benchmark, may give its size, then gives its score
+		Pattern entry = Pattern.compile("\"benchmark\"\\s*:\\s*\"([^\"]+)\"(.*?)\"score\"\\s*:\\s*([-0-9.eE+]+)"
+				+ "\\s*,\\s*\"scoreError\"\\s*:\\s*\"?([-0-9.eE+]+|NaN)", Pattern.DOTALL);
+		Pattern size = Pattern.compile("\"size\"\\s*:\\s*\"([^\"]*)\"");
+
+		HashMap<String, double[]> scores = new HashMap<String, double[]>();
+		Matcher matcher = entry.matcher(json);
+		while (matcher.find()) {
+			Matcher sizeMatcher = size.matcher(matcher.group(2));
+			String value = sizeMatcher.find() ? sizeMatcher.group(1) : null;
+			scores.put(key(matcher.group(1), value),
+					new double[] { Double.parseDouble(matcher.group(3)), Double.parseDouble(matcher.group(4)) });
+		}
+		return scores;
+	}
+
+	/*
+	 * Get a score error, counting an unknown error as none
+	 */
+	private static double error(double error) {
+		return Double.isNaN(error) ? 0 : error;
+	}
+
+	/*
+	 * Get the key identifying a benchmark run against a size
+	 */
+	private static String key(String name, String size) {
+		return size == null ? name : name + "@" + size;
+	}
+}
@@ -0,0 +1,17 @@
+#!/bin/sh
+# Compile the part01 sources with the benchmarks and run them headless,
+# writing the results to bench-results-<commit>.json in the project folder.
+# Any arguments are passed on to ImageBenchmarks, for example:
+#   bench/run.sh -sizes 10,1000 -filter ImageManager
+#   bench/run.sh -baseline bench-results-abc1234.json
+# Set BENCH_HEAP to change the heap size, which the 10M catalogue needs to be large
+set -e
+cd "$(dirname "$0")/.."
+
+classes=$(mktemp -d)
+trap 'rm -rf "$classes"' EXIT
+javac -encoding UTF-8 -d "$classes" $(find src/part01 bench -name '*.java')
+
+commit=$(git rev-parse --short HEAD 2>/dev/null || echo local)
+java -Djava.awt.headless=true -Xms${BENCH_HEAP:-12g} -Xmx${BENCH_HEAP:-12g} -cp "$classes" \
+	part01.ImageBenchmarks -o "bench-results-$commit.json" "$@"
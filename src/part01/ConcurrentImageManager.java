@@ -0,0 +1,381 @@
+package part01;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ConcurrentImageManager class manages a collection of ImageRecord objects
+ * that can be added to and searched by many threads at once. The images are
+ * split by ID across a number of stripes. Each stripe keeps its images in a
+ * few segments, each an ImageManager that is never changed once it is built,
+ * and holds the newest images in a small buffer until there are enough of them
+ * to index as a segment of their own. Segments of the same size are merged as
+ * they build up, so a stripe of n images has at most about
+ * (MERGE_FACTOR - 1) * log(n / BUFFER_SIZE) / log(MERGE_FACTOR) of them.
+ *
+ * Adding an image only locks the one stripe it belongs to, and publishes a new
+ * snapshot of the stripe's segments and buffer. Searches read the current
+ * snapshot of each stripe without taking any lock, so they never wait on each
+ * other or on an add, and each one sees every image added before it started
+ */
+public class ConcurrentImageManager {
+
+	// Number of images a stripe buffers before indexing them as a segment
+	private static final int BUFFER_SIZE = 1024;
+
+	// Number of segments of the same size merged into one
+	private static final int MERGE_FACTOR = 4;
+
+	private Stripe[] stripes; // Store the images of each stripe
+
+	/**
+	 * Constructor for the ConcurrentImageManager class, with one stripe for each
+	 * available processor
+	 */
+	public ConcurrentImageManager() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor for a ConcurrentImageManager with a given number of stripes
+	 *
+	 * @param stripeCount The number of stripes, which is rounded up to a power of
+	 *                    two
+	 */
+	public ConcurrentImageManager(int stripeCount) {
+		// A power of two lets an ID be mapped to its stripe with a mask
+		int count = 1;
+		while (count < stripeCount) {
+			count <<= 1;
+		}
+
+		this.stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			this.stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Add an ImageRecord to the collection
+	 *
+	 * @param image The ImageRecord to be added. It must not be null
+	 */
+	public void addImage(ImageRecord image) {
+		if (image != null) {
+			Stripe stripe = stripes[stripeOf(image.getId())];
+			stripe.lock.lock();
+			try {
+				stripe.add(image);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Search for an ImageRecord by its ID
+	 *
+	 * @param id The ID of the ImageRecord to search for
+	 * @return The ImageRecord with the specified ID, or null if not found
+	 */
+	public ImageRecord searchId(int id) {
+		// Only the stripe the ID belongs to can hold it
+		Snapshot snapshot = stripes[stripeOf(id)].snapshot;
+
+		for (int i = 0; i < snapshot.count; i++) {
+			if (snapshot.buffer[i].getId() == id) {
+				return copyOf(snapshot.buffer[i]);
+			}
+		}
+		for (int i = snapshot.segments.length - 1; i >= 0; i--) {
+			ImageRecord image = snapshot.segments[i].searchId(id);
+			if (image != null) {
+				return image;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Search for ImageRecords by title and create an album from the matching
+	 * results
+	 *
+	 * @param str The string to search for in image titles
+	 * @return An ImageAlbum containing ImageRecords with titles matching the
+	 *         specified string
+	 */
+	public ImageAlbum searchTitle(String str) {
+		return search(ImageQuery.title(str));
+	}
+
+	/**
+	 * Search for ImageRecords by title, optionally ignoring case and accents, and
+	 * create an album from the matching results
+	 *
+	 * @param str        The string to search for in image titles
+	 * @param ignoreCase True if the title only has to match the string when both
+	 *                   are folded to lower case without accents
+	 * @return An ImageAlbum containing ImageRecords with titles matching the
+	 *         specified string
+	 */
+	public ImageAlbum searchTitle(String str, boolean ignoreCase) {
+		return search(ImageQuery.title(str, ignoreCase));
+	}
+
+	/**
+	 * Search for ImageRecords by description and create an album from the matching
+	 * results
+	 *
+	 * @param str The string to search for in image descriptions
+	 * @return An ImageAlbum containing ImageRecords with descriptions matching the
+	 *         specified string
+	 */
+	public ImageAlbum searchDescription(String str) {
+		return search(ImageQuery.description(str));
+	}
+
+	/**
+	 * Search for ImageRecords by description, optionally ignoring case and
+	 * accents, and create an album from the matching results
+	 *
+	 * @param str        The string to search for in image descriptions
+	 * @param ignoreCase True if the description only has to match the string when
+	 *                   both are folded to lower case without accents
+	 * @return An ImageAlbum containing ImageRecords with descriptions matching the
+	 *         specified string
+	 */
+	public ImageAlbum searchDescription(String str, boolean ignoreCase) {
+		return search(ImageQuery.description(str, ignoreCase));
+	}
+
+	/**
+	 * Search for ImageRecords by genre and create an album from the matching
+	 * results
+	 *
+	 * @param type The ImageType (genre) to search for
+	 * @return An ImageAlbum containing ImageRecords with the specified genre
+	 */
+	public ImageAlbum searchGenre(ImageType type) {
+		return search(ImageQuery.genre(type));
+	}
+
+	/**
+	 * Search for ImageRecords by date range and create an album from the matching
+	 * results
+	 *
+	 * @param start     The start date of the date range
+	 * @param end       The end date of the date range
+	 * @param inclusive True if images taken on the start or end date should be
+	 *                  included
+	 * @return An ImageAlbum containing ImageRecords taken within the specified date
+	 *         range
+	 */
+	public ImageAlbum searchDates(LocalDate start, LocalDate end, boolean inclusive) {
+		return search(ImageQuery.dates(start, end, inclusive));
+	}
+
+	/**
+	 * Search for ImageRecords matching a query and create an album from the
+	 * matching results
+	 *
+	 * @param query The ImageQuery combining the search criteria
+	 * @return An ImageAlbum containing ImageRecords matching the query
+	 */
+	public ImageAlbum search(ImageQuery query) {
+		return find(query);
+	}
+
+	/**
+	 * Get an ImageAlbum containing all images in the collection
+	 *
+	 * @return An ImageAlbum containing all ImageRecords in the collection
+	 */
+	public ImageAlbum getAllImages() {
+		return find(null);
+	}
+
+	/**
+	 * Get the number of images in the collection
+	 *
+	 * @return The number of images
+	 */
+	public int size() {
+		int total = 0;
+		for (Stripe stripe : stripes) {
+			total += stripe.snapshot.size();
+		}
+		return total;
+	}
+
+	/*
+	 * Find the images matching a query, or every image if the query is null, by
+	 * merging the date ordered positions each segment finds with the matching
+	 * images of each buffer. No ImageRecord is created until the album is
+	 * navigated
+	 */
+	private ImageAlbum find(ImageQuery query) {
+		ArrayList<ImageColumns> stores = new ArrayList<ImageColumns>();
+		ArrayList<int[]> positions = new ArrayList<int[]>();
+		ArrayList<ImageRecord[]> records = new ArrayList<ImageRecord[]>();
+
+		for (Stripe stripe : stripes) {
+			Snapshot snapshot = stripe.snapshot;
+
+			for (ImageManager segment : snapshot.segments) {
+				stores.add(segment.getColumns());
+				positions.add(query == null ? segment.findAll() : segment.findPositions(query));
+				records.add(null);
+			}
+
+			// The buffer is in the order the images were added, so sort its matches
+			ImageRecord[] matches = new ImageRecord[snapshot.count];
+			int size = 0;
+			for (int i = 0; i < snapshot.count; i++) {
+				if (query == null || query.matches(snapshot.buffer[i])) {
+					matches[size++] = snapshot.buffer[i];
+				}
+			}
+			matches = Arrays.copyOf(matches, size);
+			Arrays.sort(matches, Comparator.comparingInt(MergedImageAlbum::epochDayOf));
+			stores.add(null);
+			positions.add(null);
+			records.add(matches);
+		}
+
+		return new MergedImageAlbum(stores.toArray(new ImageColumns[0]), positions.toArray(new int[0][]),
+				records.toArray(new ImageRecord[0][]));
+	}
+
+	/*
+	 * Get the stripe an image ID belongs to
+	 */
+	private int stripeOf(int id) {
+		int h = id * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (stripes.length - 1);
+	}
+
+	/*
+	 * Copy an ImageRecord, so the one kept in a buffer is never shared with the
+	 * caller
+	 */
+	private static ImageRecord copyOf(ImageRecord image) {
+		return new ImageRecord(image.getId(), image.getTitle(), image.getDescription(), image.getGenre(),
+				image.getDateTaken(), image.getThumbnail());
+	}
+
+	/*
+	 * The images of one stripe, changed only by the thread holding its lock
+	 */
+	private static class Stripe {
+		private ReentrantLock lock = new ReentrantLock(); // Guard adds to the stripe
+
+		// What searches read, replaced after every add
+		private volatile Snapshot snapshot = new Snapshot(new ImageManager[0], new ImageRecord[BUFFER_SIZE], 0);
+
+		/*
+		 * Buffer an image, indexing the buffer as a new segment once it is full
+		 */
+		private void add(ImageRecord image) {
+			Snapshot current = this.snapshot;
+
+			// The slot is beyond the count of every published snapshot, so no
+			// search reads it until the new snapshot is published
+			current.buffer[current.count] = copyOf(image);
+			if (current.count + 1 < BUFFER_SIZE) {
+				this.snapshot = new Snapshot(current.segments, current.buffer, current.count + 1);
+				return;
+			}
+
+			// Merge the newest segments whenever MERGE_FACTOR of them are the same
+			// size, so each image is indexed again only once for each size it
+			// reaches
+			ArrayList<ImageManager> segments = new ArrayList<ImageManager>(Arrays.asList(current.segments));
+			segments.add(segmentOf(current.buffer));
+			while (segments.size() >= MERGE_FACTOR) {
+				int from = segments.size() - MERGE_FACTOR;
+				if (segments.get(from).size() != segments.get(segments.size() - 1).size()) {
+					break;
+				}
+				List<ImageManager> merged = segments.subList(from, segments.size());
+				ImageManager segment = segmentOf(merged);
+				merged.clear();
+				segments.add(segment);
+			}
+
+			this.snapshot = new Snapshot(segments.toArray(new ImageManager[0]), new ImageRecord[BUFFER_SIZE], 0);
+		}
+
+		/*
+		 * Build a segment of the images of several segments, oldest first
+		 */
+		private static ImageManager segmentOf(List<ImageManager> parts) {
+			ImageManager segment = new ImageManager();
+			ImageColumns columns = segment.getColumns();
+			for (ImageManager part : parts) {
+				// Copy the text as it is stored, so it is not folded again
+				ImageColumns from = part.getColumns();
+				for (int position = 0; position < from.size(); position++) {
+					columns.add(from, position);
+				}
+			}
+			return indexed(segment);
+		}
+
+		/*
+		 * Build a segment of buffered images
+		 */
+		private static ImageManager segmentOf(ImageRecord[] images) {
+			ImageManager segment = new ImageManager();
+			for (ImageRecord image : images) {
+				segment.getColumns().add(image);
+			}
+			return indexed(segment);
+		}
+
+		/*
+		 * Index the images appended to a segment in one pass, then finish its
+		 * indexing so searches never change it. Segments are only searched by ID
+		 * and by query, so only the indexes those use are built
+		 */
+		private static ImageManager indexed(ImageManager segment) {
+			segment.storeQueryImages(0);
+			segment.finishIndexing();
+			return segment;
+		}
+	}
+
+	/*
+	 * The segments and buffer of a stripe at one moment. A snapshot never
+	 * changes once it is published, as later adds only write the buffer beyond
+	 * its count
+	 */
+	private static class Snapshot {
+		private final ImageManager[] segments; // Store the segments, oldest first
+		private final ImageRecord[] buffer; // Store the images added since the last segment
+		private final int count; // Number of images in the buffer
+
+		/*
+		 * Constructor for a Snapshot
+		 */
+		private Snapshot(ImageManager[] segments, ImageRecord[] buffer, int count) {
+			this.segments = segments;
+			this.buffer = buffer;
+			this.count = count;
+		}
+
+		/*
+		 * Get the number of images in the snapshot
+		 */
+		private int size() {
+			int total = this.count;
+			for (ImageManager segment : this.segments) {
+				total += segment.size();
+			}
+			return total;
+		}
+	}
+}
@@ -22,6 +22,24 @@ public class ImageAlbum {
 		this.album = sortAlbumImages(images);
 	}
 
+	/**
+	 * Constructor for an ImageAlbum whose images may already be in date order
+	 * 
+	 * @param images   The initial collection of images to populate the album with
+	 * @param isSorted True if the images are already sorted by the date they were
+	 *                 taken, in which case the ArrayList is used as given
+	 */
+	public ImageAlbum(ArrayList<ImageRecord> images, boolean isSorted) {
+		this.album = isSorted ? images : sortAlbumImages(images);
+	}
+
+	/**
+	 * Constructor for a subclass that fetches its images itself rather than
+	 * holding them in an ArrayList. It must override size, get and getAlbum
+	 */
+	protected ImageAlbum() {
+	}
+
 	/**
 	 * Get the first image in the album
 	 * 
@@ -29,9 +47,9 @@ public class ImageAlbum {
 	 *         empty)
 	 */
 	public ImageRecord getFirst() {
-		if (this.album.size() > 0) {
+		if (size() > 0) {
 			this.currentImageValue = 0;
-			return this.album.get(0);
+			return get(0);
 		}
 
 		return null;
@@ -44,10 +62,10 @@ public class ImageAlbum {
 	 *         album is empty or if at the end of the album)
 	 */
 	public ImageRecord getNext() {
-		if (this.album.size() > 0 && this.currentImageValue < this.album.size() - 1) {
+		if (size() > 0 && this.currentImageValue < size() - 1) {
 			// Move the index to the next image in the album
 			this.currentImageValue++;
-			return this.album.get(currentImageValue);
+			return get(currentImageValue);
 		}
 
 		return null;
@@ -61,15 +79,35 @@ public class ImageAlbum {
 	 *         previously accessed)
 	 */
 	public ImageRecord getPrevious() {
-		if (this.album.size() > 0 && this.currentImageValue > 0) {
+		if (size() > 0 && this.currentImageValue > 0) {
 			// Move the index to the previous image in the album
 			this.currentImageValue--;
-			return this.album.get(currentImageValue);
+			return get(currentImageValue);
 		}
 
 		return null;
 	}
 
+	/**
+	 * Get the number of images in the album
+	 * 
+	 * @return The number of images
+	 */
+	public int size() {
+		return this.album.size();
+	}
+
+	/**
+	 * Get the image at an index of the album, without moving the current image
+	 * 
+	 * @param index The index of the image, from 0 to size() - 1
+	 * @return The ImageRecord at the index
+	 * @throws IndexOutOfBoundsException If the index is not within the album
+	 */
+	public ImageRecord get(int index) {
+		return this.album.get(index);
+	}
+
 	/**
 	 * Get the entire album of images
 	 * 
@@ -89,32 +127,19 @@ public class ImageAlbum {
 	}
 
 	/**
-	 * Sort by insertion the given collection of images based on the date they were
-	 * taken
+	 * Sort the given collection of images based on the date they were taken. The
+	 * sort is stable, so images taken on the same date keep their original order,
+	 * and it runs in linear time on input that is already in date order
 	 * 
 	 * @param images The unsorted ArrayList of images
 	 * @return The sorted ArrayList of ImageRecord objects
 	 */
 	public ArrayList<ImageRecord> sortAlbumImages(ArrayList<ImageRecord> images) {
-		// ArrayList to store sorted images
-		ArrayList<ImageRecord> result = new ArrayList<ImageRecord>();
-
-		// Iterate through each image in the unsorted collection
-		for (ImageRecord img : images) {
-			// Index to track position where the current image should be inserted
-			int index;
-
-			// Find the correct position for the current image
-			for (index = 0; index < result.size(); index++) {
-				if (img.compareTo(images.get(index)) < 0) {
-					// Exit the loop if the current image should be inserted in this position
-					break;
-				}
-			}
-
-			// Insert the current image at the determined index to maintain sorted order
-			result.add(index, img);
-		}
+		// Copy the images so the given collection is left untouched
+		ArrayList<ImageRecord> result = new ArrayList<ImageRecord>(images);
+
+		// Merge sort the copy using the ImageRecord date ordering
+		result.sort(null);
 
 		return result;
 	}
@@ -0,0 +1,197 @@
+package part01;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The ImageBitmap class is a set of image positions stored one bit per
+ * position in an array of longs. Sets of matching images can be combined a
+ * word at a time, and a sorted list of positions can be filtered against a
+ * bitmap with one bit test per position
+ */
+public class ImageBitmap {
+
+	private long[] words; // Store the bits, 64 positions to a word
+	private int cardinality; // Number of positions in the set
+
+	/**
+	 * Constructor for an empty ImageBitmap
+	 */
+	public ImageBitmap() {
+		this.words = new long[4];
+	}
+
+	/*
+	 * Constructor for an ImageBitmap over existing words
+	 */
+	private ImageBitmap(long[] words) {
+		this.words = words;
+		for (long word : words) {
+			this.cardinality += Long.bitCount(word);
+		}
+	}
+
+	/**
+	 * Create an ImageBitmap holding the given positions
+	 *
+	 * @param positions The positions to add
+	 * @return A new ImageBitmap containing the positions
+	 */
+	public static ImageBitmap of(int[] positions) {
+		ImageBitmap result = new ImageBitmap();
+		for (int position : positions) {
+			result.add(position);
+		}
+		return result;
+	}
+
+	/**
+	 * Create an ImageBitmap holding every position below the given size
+	 *
+	 * @param size The number of positions in the collection
+	 * @return A new ImageBitmap containing positions 0 to size - 1
+	 */
+	public static ImageBitmap all(int size) {
+		long[] words = new long[(size + 63) >>> 6];
+		Arrays.fill(words, -1L);
+		if ((size & 63) != 0) {
+			words[words.length - 1] = -1L >>> (64 - (size & 63));
+		}
+		return new ImageBitmap(words);
+	}
+
+	/**
+	 * Add a position to the set
+	 *
+	 * @param position The position to add
+	 */
+	public void add(int position) {
+		int index = position >>> 6;
+		if (index >= this.words.length) {
+			this.words = Arrays.copyOf(this.words, Math.max(index + 1, this.words.length << 1));
+		}
+
+		long bit = 1L << position;
+		if ((this.words[index] & bit) == 0) {
+			this.words[index] |= bit;
+			this.cardinality++;
+		}
+	}
+
+	/**
+	 * Check whether a position is in the set
+	 *
+	 * @param position The position to check
+	 * @return True if the position is in the set, false otherwise
+	 */
+	public boolean contains(int position) {
+		int index = position >>> 6;
+		return index < this.words.length && (this.words[index] & (1L << position)) != 0;
+	}
+
+	/**
+	 * Get the number of positions in the set
+	 *
+	 * @return The number of positions
+	 */
+	public int cardinality() {
+		return this.cardinality;
+	}
+
+	/**
+	 * Create the intersection of this set and another
+	 *
+	 * @param other The other set
+	 * @return A new ImageBitmap with the positions in both sets
+	 */
+	public ImageBitmap and(ImageBitmap other) {
+		long[] result = new long[Math.min(this.words.length, other.words.length)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.words[i] & other.words[i];
+		}
+		return new ImageBitmap(result);
+	}
+
+	/**
+	 * Create the union of this set and another
+	 *
+	 * @param other The other set
+	 * @return A new ImageBitmap with the positions in either set
+	 */
+	public ImageBitmap or(ImageBitmap other) {
+		long[] longer = this.words.length >= other.words.length ? this.words : other.words;
+		long[] shorter = longer == this.words ? other.words : this.words;
+
+		long[] result = Arrays.copyOf(longer, longer.length);
+		for (int i = 0; i < shorter.length; i++) {
+			result[i] |= shorter[i];
+		}
+		return new ImageBitmap(result);
+	}
+
+	/**
+	 * Create the set of positions in this set but not in another
+	 *
+	 * @param other The other set
+	 * @return A new ImageBitmap with the positions of this set missing from the
+	 *         other
+	 */
+	public ImageBitmap andNot(ImageBitmap other) {
+		long[] result = Arrays.copyOf(this.words, this.words.length);
+		for (int i = 0; i < Math.min(result.length, other.words.length); i++) {
+			result[i] &= ~other.words[i];
+		}
+		return new ImageBitmap(result);
+	}
+
+	/**
+	 * Keep only the given positions that are also in this set. The order of the
+	 * positions is preserved
+	 *
+	 * @param positions The positions to filter
+	 * @return The positions that are in this set
+	 */
+	public int[] filter(int[] positions) {
+		int[] result = new int[positions.length];
+		int size = 0;
+		for (int position : positions) {
+			if (contains(position)) {
+				result[size++] = position;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Get the positions in the set in ascending order
+	 *
+	 * @return The ascending positions
+	 */
+	public int[] toPositions() {
+		int[] result = new int[this.cardinality];
+		int size = 0;
+		for (int i = 0; i < this.words.length; i++) {
+			long word = this.words[i];
+			// Visit each set bit by clearing the lowest one in turn
+			while (word != 0) {
+				result[size++] = (i << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Write the set to an index file
+	 */
+	void write(ImageIndexFile.Output out) throws IOException {
+		out.writeLongs(this.words, this.words.length);
+	}
+
+	/*
+	 * Read a set written by write
+	 */
+	static ImageBitmap read(ImageIndexFile.Input in) throws IOException {
+		return new ImageBitmap(in.readLongs(1));
+	}
+}
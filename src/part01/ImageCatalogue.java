@@ -0,0 +1,512 @@
+package part01;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The ImageCatalogue class persists images to disk in a binary format that is
+ * read through memory mapped files. The catalogue file holds a header followed
+ * by one fixed size row per image with its ID, epoch day, genre ordinal and
+ * the offset of its text, and a second file holds the text itself. Opening a
+ * catalogue only reads the header, so it takes the same time whatever the
+ * number of images, and any row can then be read straight from the mapping.
+ *
+ * New images are appended to the end of both files before the header is
+ * rewritten. The header is kept in two checksummed slots that are written in
+ * turn, so a write torn part way through leaves the previous header intact and
+ * the partly written image is ignored the next time the catalogue is opened
+ */
+public class ImageCatalogue {
+
+	// Identifies the file as an image catalogue ("QUBI")
+	private static final int MAGIC = 0x51554249;
+	private static final int VERSION = 1;
+
+	// Layout of the two header slots at the start of the catalogue file
+	private static final int SLOT_SIZE = 64;
+	private static final int SLOT_CHECKED = 28; // Bytes of a slot covered by its checksum
+	private static final int ROWS_START = SLOT_SIZE * 2;
+
+	// Layout of each image row
+	private static final int ROW_SIZE = 20;
+	private static final int ROW_ID = 0;
+	private static final int ROW_DAY = 4;
+	private static final int ROW_GENRE = 8;
+	private static final int ROW_TEXT = 12;
+
+	// Length written in the text file for a null string
+	private static final int NULL_LENGTH = -1;
+
+	private Path path; // The path of the catalogue file
+	private FileChannel rowChannel; // Channel for the catalogue file
+	private FileChannel textChannel; // Channel for the text file
+	private Mapping rows; // Mapping of the catalogue file
+	private Mapping text; // Mapping of the text file
+
+	private long sequence; // Sequence number of the current header
+	private int size; // Number of images committed to the catalogue
+	private long textLength; // Number of text bytes committed to the catalogue
+
+	/*
+	 * Constructor for an ImageCatalogue over open channels
+	 */
+	private ImageCatalogue(Path path, FileChannel rowChannel, FileChannel textChannel) throws IOException {
+		this.path = path;
+		this.rowChannel = rowChannel;
+		this.textChannel = textChannel;
+		this.rows = new Mapping(rowChannel, ROWS_START + 64L * ROW_SIZE);
+		this.text = new Mapping(textChannel, 4096);
+	}
+
+	/**
+	 * Open the catalogue stored at a path, creating an empty catalogue if it does
+	 * not exist. The text is kept alongside it in a file with ".text" added to the
+	 * name
+	 *
+	 * @param path The path of the catalogue file
+	 * @return The opened ImageCatalogue
+	 * @throws IOException If the files cannot be opened or are not a catalogue
+	 */
+	public static ImageCatalogue open(Path path) throws IOException {
+		FileChannel rowChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		FileChannel textChannel = FileChannel.open(path.resolveSibling(path.getFileName() + ".text"),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			boolean isNew = rowChannel.size() == 0;
+			ImageCatalogue catalogue = new ImageCatalogue(path, rowChannel, textChannel);
+			if (isNew) {
+				catalogue.writeHeader();
+			} else {
+				catalogue.readHeader(path);
+			}
+			return catalogue;
+		} catch (IOException ex) {
+			rowChannel.close();
+			textChannel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Append an image to the end of the catalogue and commit it
+	 *
+	 * @param image The ImageRecord to append
+	 * @throws IOException If the image cannot be written
+	 */
+	public void append(ImageRecord image) throws IOException {
+		long textEnd = write(this.size, this.textLength, image.getId(),
+				image.getDateTaken() == null ? ImageColumns.NO_DATE : (int) image.getDateTaken().toEpochDay(),
+				image.getGenre() == null ? ImageColumns.NO_GENRE : (byte) image.getGenre().ordinal(),
+				image.getTitle(), image.getDescription(), image.getThumbnail());
+
+		commit(this.size + 1, textEnd);
+	}
+
+	/**
+	 * Append the images of a column store from a position onwards and commit them
+	 * together, so the files are only forced to disk once for the whole batch
+	 *
+	 * @param columns The ImageColumns holding the images
+	 * @param from    The position of the first image to append
+	 * @throws IOException If the images cannot be written
+	 */
+	public void appendAll(ImageColumns columns, int from) throws IOException {
+		int position = this.size;
+		long textEnd = this.textLength;
+		for (int i = from; i < columns.size(); i++) {
+			textEnd = write(position++, textEnd, columns.getId(i), columns.getEpochDay(i), columns.getGenreOrdinal(i),
+					columns.getTitle(i), columns.getDescription(i), columns.getThumbnail(i));
+		}
+
+		if (position > this.size) {
+			commit(position, textEnd);
+		}
+	}
+
+	/**
+	 * Get the number of images in the catalogue
+	 *
+	 * @return The number of committed images
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Get the ID of the image at a position, read from the mapped row
+	 *
+	 * @param position The position of the image
+	 * @return The ID of the image
+	 */
+	public int getId(int position) {
+		return this.rows.getInt(rowOffset(position) + ROW_ID);
+	}
+
+	/**
+	 * Get the date the image at a position was taken, read from the mapped row
+	 *
+	 * @param position The position of the image
+	 * @return The epoch day of the date, or ImageColumns.NO_DATE if the image has
+	 *         no date
+	 */
+	public int getEpochDay(int position) {
+		return this.rows.getInt(rowOffset(position) + ROW_DAY);
+	}
+
+	/**
+	 * Get the genre ordinal of the image at a position, read from the mapped row
+	 *
+	 * @param position The position of the image
+	 * @return The ordinal of the genre, or ImageColumns.NO_GENRE if the image has
+	 *         no genre
+	 */
+	public byte getGenreOrdinal(int position) {
+		return this.rows.get(rowOffset(position) + ROW_GENRE);
+	}
+
+	/**
+	 * Create an ImageRecord holding the fields of the image at a position
+	 *
+	 * @param position The position of the image
+	 * @return A new ImageRecord for the image
+	 */
+	public ImageRecord getImage(int position) {
+		String[] fields = readText(position);
+		int epochDay = getEpochDay(position);
+		byte genre = getGenreOrdinal(position);
+		return new ImageRecord(getId(position), fields[0], fields[1],
+				genre == ImageColumns.NO_GENRE ? null : ImageType.values()[genre],
+				epochDay == ImageColumns.NO_DATE ? null : LocalDate.ofEpochDay(epochDay), fields[2]);
+	}
+
+	/**
+	 * Append the images from a position onwards to a column store, reading each
+	 * field straight from the mapping rather than creating an ImageRecord
+	 *
+	 * @param columns The ImageColumns to append the images to
+	 * @param from    The position of the first image to append
+	 */
+	public void readInto(ImageColumns columns, int from) {
+		for (int position = from; position < this.size; position++) {
+			String[] fields = readText(position);
+			columns.add(getId(position), fields[0], fields[1], getGenreOrdinal(position), getEpochDay(position),
+					fields[2]);
+		}
+	}
+
+	/**
+	 * Get the path of the catalogue file
+	 *
+	 * @return The path the catalogue was opened from
+	 */
+	public Path getPath() {
+		return this.path;
+	}
+
+	/**
+	 * Close the files of the catalogue
+	 *
+	 * @throws IOException If the files cannot be closed
+	 */
+	public void close() throws IOException {
+		this.rowChannel.close();
+		this.textChannel.close();
+	}
+
+	/*
+	 * Write an image into the row at a position and its text from an offset,
+	 * without committing it, returning the offset after its text
+	 */
+	private long write(int position, long textStart, int id, int epochDay, byte genre, String title, String desc,
+			String thumb) throws IOException {
+		byte[][] fields = { encode(title), encode(desc), encode(thumb) };
+
+		// Write the text after the committed text
+		long textEnd = textStart;
+		for (byte[] field : fields) {
+			textEnd += 4 + (field == null ? 0 : field.length);
+		}
+		this.text.ensure(textEnd);
+
+		long index = textStart;
+		for (byte[] field : fields) {
+			this.text.putInt(index, field == null ? NULL_LENGTH : field.length);
+			index += 4;
+			if (field != null) {
+				this.text.put(index, field);
+				index += field.length;
+			}
+		}
+
+		// Write the row after the committed rows
+		long rowStart = ROWS_START + (long) position * ROW_SIZE;
+		this.rows.ensure(rowStart + ROW_SIZE);
+
+		this.rows.putInt(rowStart + ROW_ID, id);
+		this.rows.putInt(rowStart + ROW_DAY, epochDay);
+		this.rows.put(rowStart + ROW_GENRE, genre);
+		this.rows.putLong(rowStart + ROW_TEXT, textStart);
+
+		return textEnd;
+	}
+
+	/*
+	 * Commit the images written so far by pointing a new header at them
+	 */
+	private void commit(int size, long textLength) {
+		// Make sure the images are on disk before the header points at them
+		this.text.force();
+		this.rows.force();
+
+		this.size = size;
+		this.textLength = textLength;
+		writeHeader();
+	}
+
+	/*
+	 * Read the title, description and thumbnail of the image at a position
+	 */
+	private String[] readText(int position) {
+		long index = this.rows.getLong(rowOffset(position) + ROW_TEXT);
+		String[] fields = new String[3];
+
+		// Read the title, description and thumbnail in turn
+		for (int i = 0; i < fields.length; i++) {
+			int length = this.text.getInt(index);
+			index += 4;
+			if (length != NULL_LENGTH) {
+				byte[] bytes = new byte[length];
+				this.text.get(index, bytes);
+				fields[i] = new String(bytes, StandardCharsets.UTF_8);
+				index += length;
+			}
+		}
+		return fields;
+	}
+
+	/*
+	 * Get the offset of a row in the catalogue file
+	 */
+	private long rowOffset(int position) {
+		if (position < 0 || position >= this.size) {
+			throw new IndexOutOfBoundsException("Position " + position + " of " + this.size);
+		}
+		return ROWS_START + (long) position * ROW_SIZE;
+	}
+
+	/*
+	 * Load the newest header slot with a valid checksum
+	 */
+	private void readHeader(Path path) throws IOException {
+		boolean isFound = false;
+		for (int slot = 0; slot < 2; slot++) {
+			int start = slot * SLOT_SIZE;
+			if (this.rows.getInt(start) != MAGIC || this.rows.getInt(start + 4) != VERSION
+					|| this.rows.getInt(start + SLOT_CHECKED) != checksum(start)) {
+				continue;
+			}
+
+			long sequence = this.rows.getLong(start + 8);
+			if (!isFound || sequence > this.sequence) {
+				this.sequence = sequence;
+				this.size = this.rows.getInt(start + 16);
+				this.textLength = this.rows.getLong(start + 20);
+				isFound = true;
+			}
+		}
+
+		if (!isFound) {
+			throw new IOException("'" + path + "' is not a valid image catalogue.");
+		}
+	}
+
+	/*
+	 * Write the next header into the slot not holding the current one
+	 */
+	private void writeHeader() {
+		this.sequence++;
+		int start = (int) (this.sequence % 2) * SLOT_SIZE;
+
+		this.rows.putInt(start, MAGIC);
+		this.rows.putInt(start + 4, VERSION);
+		this.rows.putLong(start + 8, this.sequence);
+		this.rows.putInt(start + 16, this.size);
+		this.rows.putLong(start + 20, this.textLength);
+		this.rows.putInt(start + SLOT_CHECKED, checksum(start));
+		this.rows.force();
+	}
+
+	/*
+	 * Calculate the checksum of the header slot starting at an offset
+	 */
+	private int checksum(int start) {
+		byte[] bytes = new byte[SLOT_CHECKED];
+		this.rows.get(start, bytes);
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		return (int) crc.getValue();
+	}
+
+	/*
+	 * A file mapped in windows of WINDOW_SIZE bytes, so it can grow beyond the
+	 * largest single mapping. Each window also maps the few bytes after it, so an
+	 * int or long lies wholly within the window its first byte falls in, while
+	 * byte arrays are copied across windows. The ranges written are recorded so
+	 * that only they are forced to disk
+	 */
+	private static class Mapping {
+		// Bytes of the file each window starts after the last
+		private static final int WINDOW_SIZE = 1 << 30;
+
+		// Bytes each window maps beyond the start of the next
+		private static final int WINDOW_OVERLAP = Long.BYTES;
+
+		private FileChannel channel; // Channel for the file
+		private MappedByteBuffer[] windows; // Store the mapping of each window
+		private long capacity; // Number of bytes mapped
+		private long dirtyStart = Long.MAX_VALUE; // Start of the bytes written since the last force
+		private long dirtyEnd; // End of the bytes written since the last force
+
+		/*
+		 * Constructor for a Mapping of a whole file, growing it to at least the
+		 * given size first
+		 */
+		private Mapping(FileChannel channel, long size) throws IOException {
+			this.channel = channel;
+			this.windows = new MappedByteBuffer[0];
+			remap(Math.max(size, channel.size()));
+		}
+
+		/*
+		 * Make sure at least a number of bytes are mapped, at least doubling the
+		 * mapping if it has to grow
+		 */
+		private void ensure(long size) throws IOException {
+			if (size > this.capacity) {
+				remap(Math.max(size, this.capacity * 2));
+			}
+		}
+
+		private int getInt(long offset) {
+			return window(offset).getInt(index(offset));
+		}
+
+		private long getLong(long offset) {
+			return window(offset).getLong(index(offset));
+		}
+
+		private byte get(long offset) {
+			return window(offset).get(index(offset));
+		}
+
+		private void putInt(long offset, int value) {
+			window(offset).putInt(index(offset), value);
+			written(offset, Integer.BYTES);
+		}
+
+		private void putLong(long offset, long value) {
+			window(offset).putLong(index(offset), value);
+			written(offset, Long.BYTES);
+		}
+
+		private void put(long offset, byte value) {
+			window(offset).put(index(offset), value);
+			written(offset, 1);
+		}
+
+		/*
+		 * Read bytes starting at an offset, across windows if they need to be
+		 */
+		private void get(long offset, byte[] bytes) {
+			for (int done = 0; done < bytes.length;) {
+				int count = Math.min(bytes.length - done, WINDOW_SIZE - index(offset + done));
+				window(offset + done).get(index(offset + done), bytes, done, count);
+				done += count;
+			}
+		}
+
+		/*
+		 * Write bytes starting at an offset, across windows if they need to be
+		 */
+		private void put(long offset, byte[] bytes) {
+			for (int done = 0; done < bytes.length;) {
+				int count = Math.min(bytes.length - done, WINDOW_SIZE - index(offset + done));
+				window(offset + done).put(index(offset + done), bytes, done, count);
+				done += count;
+			}
+			written(offset, bytes.length);
+		}
+
+		/*
+		 * Force the bytes written since the last force to disk
+		 */
+		private void force() {
+			for (long at = this.dirtyStart; at < this.dirtyEnd;) {
+				int index = index(at);
+				int count = (int) Math.min(this.dirtyEnd - at, WINDOW_SIZE - index);
+				window(at).force(index, count);
+				at += count;
+			}
+			this.dirtyStart = Long.MAX_VALUE;
+			this.dirtyEnd = 0;
+		}
+
+		/*
+		 * Record that a range of bytes has been written
+		 */
+		private void written(long offset, int length) {
+			this.dirtyStart = Math.min(this.dirtyStart, offset);
+			this.dirtyEnd = Math.max(this.dirtyEnd, offset + length);
+		}
+
+		/*
+		 * Get the window an offset falls in
+		 */
+		private MappedByteBuffer window(long offset) {
+			return this.windows[(int) (offset / WINDOW_SIZE)];
+		}
+
+		/*
+		 * Get the index of an offset within its window
+		 */
+		private static int index(long offset) {
+			return (int) (offset % WINDOW_SIZE);
+		}
+
+		/*
+		 * Map the file up to a new capacity, mapping again only the windows that
+		 * were cut short by the old one
+		 */
+		private void remap(long capacity) throws IOException {
+			int count = (int) ((capacity + WINDOW_SIZE - 1) / WINDOW_SIZE);
+			MappedByteBuffer[] windows = Arrays.copyOf(this.windows, count);
+			for (int i = 0; i < count; i++) {
+				long start = (long) i * WINDOW_SIZE;
+				long length = Math.min(WINDOW_SIZE + WINDOW_OVERLAP, capacity - start);
+				if (windows[i] == null || windows[i].capacity() < length) {
+					windows[i] = this.channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+				}
+			}
+
+			this.windows = windows;
+			this.capacity = capacity;
+		}
+	}
+
+	/*
+	 * Encode a string as UTF-8, keeping null as null
+	 */
+	private static byte[] encode(String str) {
+		return str == null ? null : str.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,339 @@
+package part01;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * The ImageColumns class stores the images of an ImageManager column by column.
+ * IDs and dates are kept in int arrays, genres in a byte array and text fields
+ * in ImageStrings, so a scan over one field reads a single primitive array
+ * instead of following a reference to every ImageRecord. ImageRecord objects
+ * are only created when an image is read back with getImage
+ */
+public class ImageColumns {
+
+	// Epoch day stored for an image without a date
+	public static final int NO_DATE = Integer.MIN_VALUE;
+
+	// Genre ordinal stored for an image without a genre
+	public static final byte NO_GENRE = -1;
+
+	// Every genre, indexed by ordinal
+	private static final ImageType[] GENRES = ImageType.values();
+
+	private int[] ids; // Store the ID of each image
+	private int[] epochDays; // Store the date each image was taken as an epoch day
+	private byte[] genres; // Store the genre ordinal of each image
+	private ImageStrings titles; // Store the title of each image
+	private ImageStrings descriptions; // Store the description of each image
+	private ImageStrings thumbnails; // Store the thumbnail of each image
+
+	// Store each title and description folded by ImageFolding, for searches
+	// that ignore case and accents
+	private ImageStrings foldedTitles;
+	private ImageStrings foldedDescriptions;
+
+	// Store the perceptual hash of each image's thumbnail, set only for the
+	// positions in the bitmap
+	private long[] hashes;
+	private ImageBitmap hashed;
+	private int size; // Number of images stored
+
+	/**
+	 * Constructor for the ImageColumns class
+	 */
+	public ImageColumns() {
+		this.ids = new int[16];
+		this.epochDays = new int[16];
+		this.genres = new byte[16];
+		this.titles = new ImageStrings();
+		this.descriptions = new ImageStrings();
+		this.thumbnails = new ImageStrings();
+		this.foldedTitles = new ImageStrings();
+		this.foldedDescriptions = new ImageStrings();
+		this.hashes = new long[16];
+		this.hashed = new ImageBitmap();
+	}
+
+	/**
+	 * Append the fields of an image, which takes the next position
+	 *
+	 * @param image The ImageRecord to store
+	 * @return The position the image was stored at
+	 */
+	public int add(ImageRecord image) {
+		return add(image.getId(), image.getTitle(), image.getDescription(),
+				image.getGenre() == null ? NO_GENRE : (byte) image.getGenre().ordinal(),
+				image.getDateTaken() == null ? NO_DATE : (int) image.getDateTaken().toEpochDay(), image.getThumbnail());
+	}
+
+	/**
+	 * Append the fields of an image that has not been made into an ImageRecord,
+	 * which takes the next position
+	 *
+	 * @param id          The ID of the image
+	 * @param title       The title of the image
+	 * @param description The description of the image
+	 * @param genre       The genre ordinal of the image, or NO_GENRE
+	 * @param epochDay    The epoch day the image was taken, or NO_DATE
+	 * @param thumbnail   The thumbnail of the image
+	 * @return The position the image was stored at
+	 */
+	public int add(int id, String title, String description, byte genre, int epochDay, String thumbnail) {
+		int position = addFields(id, genre, epochDay);
+		this.titles.add(title);
+		this.descriptions.add(description);
+		this.thumbnails.add(thumbnail);
+		this.foldedTitles.add(ImageFolding.fold(title));
+		this.foldedDescriptions.add(ImageFolding.fold(description));
+		this.size++;
+
+		return position;
+	}
+
+	/**
+	 * Append the image at a position of another column store, copying its text
+	 * as it is stored rather than decoding and folding it again. The hash of its
+	 * thumbnail is not copied
+	 *
+	 * @param other    The ImageColumns holding the image
+	 * @param position The position of the image in the other store
+	 * @return The position the image was stored at
+	 */
+	public int add(ImageColumns other, int position) {
+		int added = addFields(other.ids[position], other.genres[position], other.epochDays[position]);
+		this.titles.add(other.titles, position);
+		this.descriptions.add(other.descriptions, position);
+		this.thumbnails.add(other.thumbnails, position);
+		this.foldedTitles.add(other.foldedTitles, position);
+		this.foldedDescriptions.add(other.foldedDescriptions, position);
+		this.size++;
+
+		return added;
+	}
+
+	/**
+	 * Create an ImageRecord holding the fields of the image at a position
+	 *
+	 * @param position The position of the image
+	 * @return A new ImageRecord for the image
+	 */
+	public ImageRecord getImage(int position) {
+		int epochDay = this.epochDays[position];
+		return new ImageRecord(this.ids[position], this.titles.get(position), this.descriptions.get(position),
+				getGenre(position), epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay),
+				this.thumbnails.get(position));
+	}
+
+	/**
+	 * Get the ID of the image at a position
+	 *
+	 * @param position The position of the image
+	 * @return The ID of the image
+	 */
+	public int getId(int position) {
+		return this.ids[position];
+	}
+
+	/**
+	 * Get the date the image at a position was taken
+	 *
+	 * @param position The position of the image
+	 * @return The epoch day of the date, or NO_DATE if the image has no date
+	 */
+	public int getEpochDay(int position) {
+		return this.epochDays[position];
+	}
+
+	/**
+	 * Get the genre ordinal of the image at a position
+	 *
+	 * @param position The position of the image
+	 * @return The ordinal of the genre, or NO_GENRE if the image has no genre
+	 */
+	public byte getGenreOrdinal(int position) {
+		return this.genres[position];
+	}
+
+	/**
+	 * Get the genre of the image at a position
+	 *
+	 * @param position The position of the image
+	 * @return The genre of the image, or null if the image has no genre
+	 */
+	public ImageType getGenre(int position) {
+		byte ordinal = this.genres[position];
+		return ordinal == NO_GENRE ? null : GENRES[ordinal];
+	}
+
+	/**
+	 * Get the title of the image at a position
+	 *
+	 * @param position The position of the image
+	 * @return The title of the image
+	 */
+	public String getTitle(int position) {
+		return this.titles.get(position);
+	}
+
+	/**
+	 * Get the description of the image at a position
+	 *
+	 * @param position The position of the image
+	 * @return The description of the image
+	 */
+	public String getDescription(int position) {
+		return this.descriptions.get(position);
+	}
+
+	/**
+	 * Get the thumbnail of the image at a position
+	 *
+	 * @param position The position of the image
+	 * @return The thumbnail of the image
+	 */
+	public String getThumbnail(int position) {
+		return this.thumbnails.get(position);
+	}
+
+	/**
+	 * Set the perceptual hash of the thumbnail of the image at a position
+	 *
+	 * @param position The position of the image
+	 * @param hash     The hash calculated by ImageHashes
+	 */
+	public void setHash(int position, long hash) {
+		this.hashes[position] = hash;
+		this.hashed.add(position);
+	}
+
+	/**
+	 * Check whether the image at a position has a perceptual hash
+	 *
+	 * @param position The position of the image
+	 * @return True if the thumbnail of the image has been hashed
+	 */
+	public boolean hasHash(int position) {
+		return this.hashed.contains(position);
+	}
+
+	/**
+	 * Get the perceptual hash of the thumbnail of the image at a position
+	 *
+	 * @param position The position of the image
+	 * @return The hash, which is only meaningful if hasHash is true
+	 */
+	public long getHash(int position) {
+		return this.hashes[position];
+	}
+
+	/**
+	 * Get the packed titles of every image
+	 *
+	 * @return The title column
+	 */
+	public ImageStrings getTitles() {
+		return this.titles;
+	}
+
+	/**
+	 * Get the packed descriptions of every image
+	 *
+	 * @return The description column
+	 */
+	public ImageStrings getDescriptions() {
+		return this.descriptions;
+	}
+
+	/**
+	 * Get the titles of every image folded to lower case without accents
+	 *
+	 * @return The folded title column
+	 */
+	public ImageStrings getFoldedTitles() {
+		return this.foldedTitles;
+	}
+
+	/**
+	 * Get the descriptions of every image folded to lower case without accents
+	 *
+	 * @return The folded description column
+	 */
+	public ImageStrings getFoldedDescriptions() {
+		return this.foldedDescriptions;
+	}
+
+	/**
+	 * Get the number of images stored
+	 *
+	 * @return The number of images
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/*
+	 * Store the fixed size fields of the next image, growing their arrays if
+	 * needed, and return its position. The caller appends the text and then
+	 * counts the image
+	 */
+	private int addFields(int id, byte genre, int epochDay) {
+		if (this.size == this.ids.length) {
+			int capacity = this.size << 1;
+			this.ids = Arrays.copyOf(this.ids, capacity);
+			this.epochDays = Arrays.copyOf(this.epochDays, capacity);
+			this.genres = Arrays.copyOf(this.genres, capacity);
+			this.hashes = Arrays.copyOf(this.hashes, capacity);
+		}
+
+		int position = this.size;
+		this.ids[position] = id;
+		this.epochDays[position] = epochDay;
+		this.genres[position] = genre;
+		return position;
+	}
+
+	/*
+	 * Write the columns to an index file. The hashes are not written, as they
+	 * are set again from the thumbnails once the images are loaded
+	 */
+	void write(ImageIndexFile.Output out) throws IOException {
+		out.writeInt(this.size);
+		out.writeInts(this.ids, this.size);
+		out.writeInts(this.epochDays, this.size);
+		out.writeBytes(this.genres, this.size);
+		this.titles.write(out);
+		this.descriptions.write(out);
+		this.thumbnails.write(out);
+		this.foldedTitles.write(out);
+		this.foldedDescriptions.write(out);
+	}
+
+	/*
+	 * Read columns written by write
+	 */
+	static ImageColumns read(ImageIndexFile.Input in) throws IOException {
+		ImageColumns columns = new ImageColumns();
+		columns.size = in.readInt();
+		columns.ids = in.readInts(16);
+		columns.epochDays = in.readInts(16);
+		columns.genres = in.readBytes(16);
+		columns.titles = ImageStrings.read(in);
+		columns.descriptions = ImageStrings.read(in);
+		columns.thumbnails = ImageStrings.read(in);
+		columns.foldedTitles = ImageStrings.read(in);
+		columns.foldedDescriptions = ImageStrings.read(in);
+		columns.hashes = new long[columns.ids.length];
+
+		// Every column must hold the same number of images
+		int size = columns.size;
+		if (size < 0 || (size > 16 && size != columns.ids.length) || columns.epochDays.length != columns.ids.length
+				|| columns.genres.length != columns.ids.length || columns.titles.size() != size
+				|| columns.descriptions.size() != size || columns.thumbnails.size() != size
+				|| columns.foldedTitles.size() != size || columns.foldedDescriptions.size() != size) {
+			throw new IOException("Damaged image index file.");
+		}
+		return columns;
+	}
+}
@@ -0,0 +1,236 @@
+package part01;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * The ImageDateIndex class keeps the positions of the images in an
+ * ImageManager ordered by the date they were taken. Each entry packs the epoch
+ * day of the date above the position of the image, so sorting the entries
+ * orders them by date and then by the order the images were added. A date
+ * range is found with two binary searches and is already in album order
+ */
+public class ImageDateIndex {
+
+	private long[] entries; // Store the sorted packed (epoch day, position) entries
+	private int size; // Number of sorted entries
+
+	private long[] pending; // Store entries added since the last merge, unsorted
+	private volatile int pendingSize; // Number of pending entries
+
+	/**
+	 * Constructor for the ImageDateIndex class
+	 */
+	public ImageDateIndex() {
+		this.entries = new long[16];
+		this.pending = new long[16];
+	}
+
+	/**
+	 * Add the date of an image to the index. Images without a date are not indexed
+	 *
+	 * @param date     The date the image was taken
+	 * @param position The position of the image in the collection
+	 */
+	public void add(LocalDate date, int position) {
+		if (date != null) {
+			add((int) date.toEpochDay(), position);
+		}
+	}
+
+	/**
+	 * Add the date of an image to the index by its epoch day. Images without a
+	 * date are not indexed
+	 *
+	 * @param epochDay The epoch day the image was taken, or ImageColumns.NO_DATE
+	 * @param position The position of the image in the collection
+	 */
+	public void add(int epochDay, int position) {
+		if (epochDay == ImageColumns.NO_DATE) {
+			return;
+		}
+
+		// Buffer the entry; it is merged into the sorted entries on the next query
+		if (this.pendingSize == this.pending.length) {
+			this.pending = Arrays.copyOf(this.pending, this.pendingSize << 1);
+		}
+		this.pending[this.pendingSize++] = pack(epochDay, position);
+	}
+
+	/**
+	 * Find the positions of the images taken between two dates
+	 *
+	 * @param start     The start date of the date range
+	 * @param end       The end date of the date range
+	 * @param inclusive True if images taken on the start or end date should be
+	 *                  included
+	 * @return The positions of the matching images in date order
+	 */
+	public int[] range(LocalDate start, LocalDate end, boolean inclusive) {
+		int from = firstAtOrAfter(firstDay(start, inclusive));
+		int to = firstAtOrAfter(lastDay(end, inclusive) + 1L);
+
+		// Unpack the positions from the contiguous slice of entries
+		int[] result = new int[Math.max(0, to - from)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = (int) this.entries[from + i];
+		}
+
+		return result;
+	}
+
+	/**
+	 * Get the positions of every indexed image
+	 *
+	 * @return The positions of the images in date order
+	 */
+	public int[] all() {
+		mergePending();
+
+		int[] result = new int[this.size];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = (int) this.entries[i];
+		}
+
+		return result;
+	}
+
+	/**
+	 * Count the images taken between two dates without collecting them
+	 *
+	 * @param start     The start date of the date range
+	 * @param end       The end date of the date range
+	 * @param inclusive True if images taken on the start or end date should be
+	 *                  included
+	 * @return The number of matching images
+	 */
+	public int count(LocalDate start, LocalDate end, boolean inclusive) {
+		int from = firstAtOrAfter(firstDay(start, inclusive));
+		int to = firstAtOrAfter(lastDay(end, inclusive) + 1L);
+		return Math.max(0, to - from);
+	}
+
+	/**
+	 * Get the number of images in the index
+	 *
+	 * @return The number of indexed images
+	 */
+	public int size() {
+		return this.size + this.pendingSize;
+	}
+
+	/*
+	 * Get the first epoch day of a range from its start date
+	 */
+	private static long firstDay(LocalDate start, boolean inclusive) {
+		return inclusive ? start.toEpochDay() : start.toEpochDay() + 1;
+	}
+
+	/*
+	 * Get the last epoch day of a range from its end date
+	 */
+	private static long lastDay(LocalDate end, boolean inclusive) {
+		return inclusive ? end.toEpochDay() : end.toEpochDay() - 1;
+	}
+
+	/*
+	 * Binary search for the first sorted entry taken on or after the given day
+	 */
+	private int firstAtOrAfter(long day) {
+		mergePending();
+
+		// Days that cannot be packed lie before or after every entry
+		if (day < Integer.MIN_VALUE) {
+			return 0;
+		} else if (day > Integer.MAX_VALUE) {
+			return this.size;
+		}
+		long key = day << 32;
+
+		int low = 0;
+		int high = this.size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (this.entries[mid] < key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/*
+	 * Sort the pending entries and merge them into the sorted entries. This is
+	 * synchronized as it is the only change made while searching, so concurrent
+	 * searches that are not adding images can share the index safely. Once
+	 * nothing is pending, searches read the index without taking the lock
+	 */
+	void mergePending() {
+		if (this.pendingSize != 0) {
+			synchronized (this) {
+				if (this.pendingSize != 0) {
+					merge();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Merge the pending entries, clearing them last so a search that sees none
+	 * pending also sees them merged
+	 */
+	private void merge() {
+		Arrays.sort(this.pending, 0, this.pendingSize);
+
+		// Merge from the back so the sorted entries can be grown in place
+		int total = this.size + this.pendingSize;
+		if (total > this.entries.length) {
+			this.entries = Arrays.copyOf(this.entries, Math.max(total, this.entries.length << 1));
+		}
+
+		int i = this.size - 1;
+		int j = this.pendingSize - 1;
+		for (int k = total - 1; j >= 0; k--) {
+			if (i >= 0 && this.entries[i] > this.pending[j]) {
+				this.entries[k] = this.entries[i--];
+			} else {
+				this.entries[k] = this.pending[j--];
+			}
+		}
+
+		this.size = total;
+		this.pendingSize = 0;
+	}
+
+	/*
+	 * Pack an epoch day and a position into one sortable long
+	 */
+	private static long pack(int epochDay, int position) {
+		return ((long) epochDay << 32) | position;
+	}
+
+	/*
+	 * Write the index to an index file, merging any pending entries first
+	 */
+	void write(ImageIndexFile.Output out) throws IOException {
+		mergePending();
+		out.writeInt(this.size);
+		out.writeLongs(this.entries, this.size);
+	}
+
+	/*
+	 * Read an index written by write
+	 */
+	static ImageDateIndex read(ImageIndexFile.Input in) throws IOException {
+		ImageDateIndex index = new ImageDateIndex();
+		index.size = in.readInt();
+		index.entries = in.readLongs(16);
+		if (index.size < 0 || index.size > index.entries.length) {
+			throw new IOException("Damaged image index file.");
+		}
+		return index;
+	}
+}
@@ -0,0 +1,124 @@
+package part01;
+
+/**
+ * The ImageDates class parses the dates images were taken, in the format
+ * YYYY-MM-DD, straight into an epoch day. The digits are read directly from
+ * the characters, so parsing allocates nothing and an invalid date is reported
+ * through the result rather than by throwing an exception. This keeps parsing
+ * cheap when many dates are read at once, such as during a bulk load, and
+ * when many of them are bad
+ */
+public final class ImageDates {
+
+	// Results returned instead of an epoch day, all below any valid epoch day
+	public static final int BAD_FORMAT = Integer.MIN_VALUE + 1; // Not in the form YYYY-MM-DD
+	public static final int BAD_MONTH = Integer.MIN_VALUE + 2; // Month not between 1 and 12
+	public static final int BAD_DAY = Integer.MIN_VALUE + 3; // Day not within the month
+
+	// Results below this are statuses rather than epoch days
+	private static final int LAST_STATUS = BAD_DAY;
+
+	// Number of days from 0000-01-01 to 1970-01-01
+	private static final int DAYS_0000_TO_1970 = 719528;
+
+	/*
+	 * The class only has static methods
+	 */
+	private ImageDates() {
+	}
+
+	/**
+	 * Parse a date in the format YYYY-MM-DD
+	 *
+	 * @param date The characters of the date, which may be null
+	 * @return The epoch day of the date, or BAD_FORMAT, BAD_MONTH or BAD_DAY if
+	 *         it is not a valid date
+	 */
+	public static int parse(CharSequence date) {
+		if (date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+			return BAD_FORMAT;
+		}
+
+		int year = digits(date, 0, 4);
+		int month = digits(date, 5, 7);
+		int day = digits(date, 8, 10);
+		if (year < 0 || month < 0 || day < 0) {
+			return BAD_FORMAT;
+		}
+
+		if (month < 1 || month > 12) {
+			return BAD_MONTH;
+		}
+		if (day < 1 || day > lengthOfMonth(year, month)) {
+			return BAD_DAY;
+		}
+
+		return toEpochDay(year, month, day);
+	}
+
+	/**
+	 * Check whether a result of parse is an epoch day rather than a status
+	 *
+	 * @param result The result returned by parse
+	 * @return True if the date parsed was valid, false otherwise
+	 */
+	public static boolean isValid(int result) {
+		return result > LAST_STATUS;
+	}
+
+	/*
+	 * Read the decimal digits between two indexes, or -1 if any is not a digit
+	 */
+	private static int digits(CharSequence date, int from, int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			int digit = date.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/*
+	 * Get the number of days in a month of a year
+	 */
+	private static int lengthOfMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return isLeapYear(year) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/*
+	 * Check whether a year is a leap year in the proleptic Gregorian calendar
+	 */
+	private static boolean isLeapYear(int year) {
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	/*
+	 * Count the days from 1970-01-01 to a valid date, as LocalDate.toEpochDay
+	 * does for years from 0 onwards
+	 */
+	private static int toEpochDay(int year, int month, int day) {
+		int total = 365 * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+		total += (367 * month - 362) / 12;
+		total += day - 1;
+
+		// The formula above counts February as 30 days
+		if (month > 2) {
+			total -= isLeapYear(year) ? 1 : 2;
+		}
+
+		return total - DAYS_0000_TO_1970;
+	}
+}
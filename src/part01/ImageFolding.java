@@ -0,0 +1,109 @@
+package part01;
+
+import java.text.Normalizer;
+
+/**
+ * The ImageFolding class folds text for searches that ignore case and accents,
+ * so "Dun Laoghaire" written with an accented u and "DUN LAOGHAIRE" both fold
+ * to "dun laoghaire". Each character is folded on its own, without looking at
+ * its neighbours, so the folded form of a string always contains the folded
+ * form of any substring of it. This lets one trigram index over folded text
+ * find the candidates of both exact and folded searches.
+ *
+ * ASCII text only has its upper case letters lowered and is returned as it is
+ * if it has none, so folding the usual title allocates nothing
+ */
+public final class ImageFolding {
+
+	/*
+	 * The class only has static methods
+	 */
+	private ImageFolding() {
+	}
+
+	/**
+	 * Fold a string to lower case with its accents removed
+	 *
+	 * @param str The string to fold, which may be null
+	 * @return The folded string, or null if the string was null
+	 */
+	public static String fold(String str) {
+		if (str == null) {
+			return null;
+		}
+
+		// Find the first character that folds to something else
+		int length = str.length();
+		int i = 0;
+		while (i < length) {
+			char c = str.charAt(i);
+			if (c >= 0x80 || (c >= 'A' && c <= 'Z')) {
+				break;
+			}
+			i++;
+		}
+		if (i == length) {
+			return str;
+		}
+
+		StringBuilder sb = new StringBuilder(length);
+		sb.append(str, 0, i);
+		while (i < length) {
+			int codePoint = str.codePointAt(i);
+			i += Character.charCount(codePoint);
+
+			if (codePoint < 0x80) {
+				sb.append((char) (codePoint >= 'A' && codePoint <= 'Z' ? codePoint + ('a' - 'A') : codePoint));
+			} else {
+				appendFolded(sb, codePoint);
+			}
+		}
+
+		return sb.toString();
+	}
+
+	/*
+	 * Append the folded form of a character outside ASCII
+	 */
+	private static void appendFolded(StringBuilder sb, int codePoint) {
+		// Split the character into its base letter and accents, then drop the accents
+		String decomposed = Normalizer.normalize(new String(Character.toChars(codePoint)), Normalizer.Form.NFD);
+
+		for (int i = 0; i < decomposed.length();) {
+			int part = decomposed.codePointAt(i);
+			i += Character.charCount(part);
+
+			if (Character.getType(part) == Character.NON_SPACING_MARK) {
+				continue;
+			}
+
+			// Letters whose stroke or ligature is not an accent NFD can remove
+			int lower = Character.toLowerCase(part);
+			switch (lower) {
+			case '\u00F8': // o with stroke
+				sb.append('o');
+				break;
+			case '\u0142': // l with stroke
+				sb.append('l');
+				break;
+			case '\u0111': // d with stroke
+				sb.append('d');
+				break;
+			case '\u0131': // dotless i
+				sb.append('i');
+				break;
+			case '\u00E6': // ae ligature
+				sb.append("ae");
+				break;
+			case '\u0153': // oe ligature
+				sb.append("oe");
+				break;
+			case '\u00DF': // sharp s
+				sb.append("ss");
+				break;
+			default:
+				sb.appendCodePoint(lower);
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package part01;
+
+import java.io.IOException;
+
+/**
+ * The ImageGenreIndex class keeps an ImageBitmap of image positions for each
+ * ImageType, so the images of a genre can be found without checking every
+ * image
+ */
+public class ImageGenreIndex {
+
+	// Store one bitmap per genre, indexed by the ordinal of the ImageType
+	private ImageBitmap[] genres;
+
+	/**
+	 * Constructor for the ImageGenreIndex class
+	 */
+	public ImageGenreIndex() {
+		this.genres = new ImageBitmap[ImageType.values().length];
+		for (int i = 0; i < this.genres.length; i++) {
+			this.genres[i] = new ImageBitmap();
+		}
+	}
+
+	/**
+	 * Add the genre of an image to the index. Images without a genre are not
+	 * indexed
+	 *
+	 * @param genre    The genre of the image
+	 * @param position The position of the image in the collection
+	 */
+	public void add(ImageType genre, int position) {
+		if (genre != null) {
+			this.genres[genre.ordinal()].add(position);
+		}
+	}
+
+	/**
+	 * Get the positions of the images of a genre
+	 *
+	 * @param genre The genre to look up
+	 * @return The ImageBitmap of the images of the genre, or an empty ImageBitmap
+	 *         if the genre is null. It must not be modified
+	 */
+	public ImageBitmap get(ImageType genre) {
+		if (genre == null) {
+			return new ImageBitmap();
+		}
+		return this.genres[genre.ordinal()];
+	}
+
+	/**
+	 * Count the images of a genre
+	 *
+	 * @param genre The genre to count
+	 * @return The number of images of the genre
+	 */
+	public int count(ImageType genre) {
+		return get(genre).cardinality();
+	}
+
+	/*
+	 * Write the index to an index file
+	 */
+	void write(ImageIndexFile.Output out) throws IOException {
+		out.writeInt(this.genres.length);
+		for (ImageBitmap genre : this.genres) {
+			genre.write(out);
+		}
+	}
+
+	/*
+	 * Read an index written by write. An index saved with another set of genres
+	 * cannot be used
+	 */
+	static ImageGenreIndex read(ImageIndexFile.Input in) throws IOException {
+		ImageGenreIndex index = new ImageGenreIndex();
+		if (in.readInt() != index.genres.length) {
+			throw new IOException("The image index file has other genres.");
+		}
+		for (int i = 0; i < index.genres.length; i++) {
+			index.genres[i] = ImageBitmap.read(in);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,244 @@
+package part01;
+
+import java.util.Arrays;
+
+/**
+ * The ImageHashTree class is a BK-tree over the perceptual hashes of the images
+ * in an ImageManager, for finding near-duplicate images. Each node holds one
+ * distinct hash and the positions of the images with it, and its children are
+ * keyed by the Hamming distance of their hash from it, which is the number of
+ * bits the two differ in. As the Hamming distance is a metric, a search within
+ * a radius of a hash only has to visit the children whose key is within the
+ * radius of the node's own distance, and near-duplicates are searched for with
+ * a small radius.
+ *
+ * The nodes are kept in parallel arrays, with each node's children linked
+ * through their first child and next sibling. A hash already in the tree, such
+ * as that of a thumbnail used by several images, is found through an open
+ * addressing table of node indexes rather than by walking down to it
+ */
+public class ImageHashTree {
+
+	// Marker for a missing child or sibling
+	private static final int NONE = -1;
+
+	// Largest share of the node table that may be in use before it is doubled
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] hashes; // Store the hash of each node
+	private int[][] positions; // Store the ascending image positions of each node
+	private int[] counts; // Store the number of positions in each node
+	private int[] distances; // Store the distance of each node from its parent
+	private int[] firstChild; // Store the first child of each node
+	private int[] nextSibling; // Store the next child of each node's parent
+	private int size; // Number of nodes
+	private int[] slots; // Store the node holding each hash by its hash
+
+	/**
+	 * Constructor for the ImageHashTree class
+	 */
+	public ImageHashTree() {
+		this.hashes = new long[16];
+		this.positions = new int[16][];
+		this.counts = new int[16];
+		this.distances = new int[16];
+		this.firstChild = new int[16];
+		this.nextSibling = new int[16];
+		this.slots = new int[16];
+		Arrays.fill(this.slots, NONE);
+	}
+
+	/**
+	 * Add the hash of an image to the tree. Images must be added in ascending
+	 * position order
+	 *
+	 * @param hash     The perceptual hash of the image
+	 * @param position The position of the image in the collection
+	 */
+	public void add(long hash, int position) {
+		int existing = findNode(hash);
+		if (existing != NONE) {
+			addPosition(existing, position);
+			return;
+		}
+
+		if (this.size == 0) {
+			newNode(hash, position, 0);
+			return;
+		}
+
+		// Walk down the children at the hash's distance from each node
+		int node = 0;
+		while (true) {
+			int distance = ImageHashes.distance(hash, this.hashes[node]);
+
+			int child = this.firstChild[node];
+			while (child != NONE && this.distances[child] != distance) {
+				child = this.nextSibling[child];
+			}
+
+			if (child == NONE) {
+				int added = newNode(hash, position, distance);
+				this.nextSibling[added] = this.firstChild[node];
+				this.firstChild[node] = added;
+				return;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * Find the images whose hashes are closest to a hash
+	 *
+	 * @param hash        The perceptual hash to search for
+	 * @param maxDistance The largest number of bits a hash may differ by
+	 * @param limit       The largest number of positions to return
+	 * @return The positions of the closest images, nearest first, with images at
+	 *         the same distance in ascending position order
+	 */
+	public int[] nearest(long hash, int maxDistance, int limit) {
+		if (this.size == 0 || limit <= 0 || maxDistance < 0) {
+			return new int[0];
+		}
+
+		// Positions found, with their distance packed above them
+		long[] keys = new long[16];
+		int found = 0;
+
+		// Nodes still to visit
+		int[] stack = new int[16];
+		int top = 0;
+		stack[top++] = 0;
+
+		while (top > 0) {
+			int node = stack[--top];
+			int distance = ImageHashes.distance(hash, this.hashes[node]);
+
+			if (distance <= maxDistance) {
+				// Positions are ascending, so no more than the limit can be needed
+				int count = Math.min(this.counts[node], limit);
+				if (found + count > keys.length) {
+					keys = Arrays.copyOf(keys, Math.max(found + count, keys.length << 1));
+				}
+				for (int i = 0; i < count; i++) {
+					keys[found++] = ((long) distance << 32) | this.positions[node][i];
+				}
+			}
+
+			// Only children keyed within the radius of this distance can be close enough
+			for (int child = this.firstChild[node]; child != NONE; child = this.nextSibling[child]) {
+				if (Math.abs(this.distances[child] - distance) <= maxDistance) {
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, top << 1);
+					}
+					stack[top++] = child;
+				}
+			}
+		}
+
+		// Order the positions by distance, then by position
+		Arrays.sort(keys, 0, found);
+		int[] result = new int[Math.min(limit, found)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = (int) keys[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Get the number of distinct hashes in the tree
+	 *
+	 * @return The number of nodes
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/*
+	 * Create a node holding one position, returning its index
+	 */
+	private int newNode(long hash, int position, int distance) {
+		if (this.size == this.hashes.length) {
+			int capacity = this.size << 1;
+			this.hashes = Arrays.copyOf(this.hashes, capacity);
+			this.positions = Arrays.copyOf(this.positions, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
+			this.distances = Arrays.copyOf(this.distances, capacity);
+			this.firstChild = Arrays.copyOf(this.firstChild, capacity);
+			this.nextSibling = Arrays.copyOf(this.nextSibling, capacity);
+		}
+
+		int node = this.size++;
+		this.hashes[node] = hash;
+		this.positions[node] = new int[] { position };
+		this.counts[node] = 1;
+		this.distances[node] = distance;
+		this.firstChild[node] = NONE;
+		this.nextSibling[node] = NONE;
+		indexNode(node);
+		return node;
+	}
+
+	/*
+	 * Find the node holding a hash, or NONE if no node does
+	 */
+	private int findNode(long hash) {
+		int mask = this.slots.length - 1;
+		int slot = mix(hash) & mask;
+
+		// Probe linearly until the hash or a free slot is found
+		while (this.slots[slot] != NONE) {
+			if (this.hashes[this.slots[slot]] == hash) {
+				return this.slots[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NONE;
+	}
+
+	/*
+	 * Record a new node in the table, doubling the table first if it is too full
+	 */
+	private void indexNode(int node) {
+		if (this.size > this.slots.length * LOAD_FACTOR) {
+			this.slots = new int[this.slots.length << 1];
+			Arrays.fill(this.slots, NONE);
+			for (int i = 0; i < node; i++) {
+				place(i);
+			}
+		}
+		place(node);
+	}
+
+	/*
+	 * Put a node in the first free slot from its hash
+	 */
+	private void place(int node) {
+		int mask = this.slots.length - 1;
+		int slot = mix(this.hashes[node]) & mask;
+		while (this.slots[slot] != NONE) {
+			slot = (slot + 1) & mask;
+		}
+		this.slots[slot] = node;
+	}
+
+	/*
+	 * Spread the bits of a hash over an int, as similar images have similar hashes
+	 */
+	private static int mix(long hash) {
+		long h = hash * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/*
+	 * Add another image with the same hash to a node
+	 */
+	private void addPosition(int node, int position) {
+		int count = this.counts[node];
+		if (count == this.positions[node].length) {
+			this.positions[node] = Arrays.copyOf(this.positions[node], count << 1);
+		}
+		this.positions[node][count] = position;
+		this.counts[node] = count + 1;
+	}
+}
@@ -0,0 +1,273 @@
+package part01;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The ImageHashes class keeps a perceptual hash of each image file in the
+ * images directory, so copies of the same picture can be found even when they
+ * are stored under different names, scaled or saved in another format. The
+ * hash is a difference hash (dHash): the image is shrunk to 9 by 8 cells of
+ * average brightness, and each of the 64 bits records whether a cell is
+ * brighter than the one to its left. Images that look alike have hashes that
+ * differ in only a few bits.
+ *
+ * Updating hashes every file that is new or has changed since it was last
+ * hashed, decoding the files on a pool of threads. Files that cannot be
+ * decoded as images have no hash
+ */
+public class ImageHashes {
+
+	// Number of cells across the shrunk image, one more than the bits in a row
+	private static final int COLUMNS = 9;
+
+	// Number of rows of cells in the shrunk image
+	private static final int ROWS = 8;
+
+	private Path directory; // The directory the image files are in
+
+	// What is known of each image file, by file name
+	private ConcurrentHashMap<String, Hashed> entries;
+
+	/**
+	 * Constructor for the ImageHashes class. No file is hashed until the hashes
+	 * are updated or asked for
+	 *
+	 * @param directory The directory the image files are in
+	 */
+	public ImageHashes(String directory) {
+		this.directory = Paths.get(directory);
+		this.entries = new ConcurrentHashMap<String, Hashed>();
+	}
+
+	/**
+	 * Hash every image file that is new or has changed since it was last hashed,
+	 * and forget the files that no longer exist. A file that cannot be read is
+	 * left without a hash rather than failing the update
+	 *
+	 * @param threads The number of threads to decode the files on
+	 * @return The number of files that were hashed
+	 * @throws IOException If the directory cannot be listed or the hashing is
+	 *                     interrupted
+	 */
+	public int update(int threads) throws IOException {
+		ArrayList<String> names = new ArrayList<String>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+			for (Path file : files) {
+				if (Files.isRegularFile(file) && !file.getFileName().toString().startsWith(".")) {
+					names.add(file.getFileName().toString());
+				}
+			}
+		}
+		this.entries.keySet().retainAll(new HashSet<String>(names));
+
+		// Use daemon threads so a failed update does not stop the program exiting
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+			Thread thread = new Thread(task, "image-hasher");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+			for (String name : names) {
+				tasks.add(() -> {
+					try {
+						return update(name);
+					} catch (IOException | RuntimeException ex) {
+						// A file that cannot be read is recorded as having no hash, and is
+						// tried again by the next update, so it does not stop the others
+						this.entries.put(name, new Hashed(-1, -1, null));
+						return false;
+					}
+				});
+			}
+
+			int hashed = 0;
+			for (Future<Boolean> future : executor.invokeAll(tasks)) {
+				if (future.get()) {
+					hashed++;
+				}
+			}
+			return hashed;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Hashing the images was interrupted.");
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IllegalStateException(ex.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Get the hash of an image file that has already been hashed
+	 *
+	 * @param fileName The name of the image file
+	 * @return The hash of the file, or null if it has not been hashed or is not
+	 *         an image
+	 */
+	public Long get(String fileName) {
+		Hashed entry = fileName == null ? null : this.entries.get(fileName);
+		return entry == null ? null : entry.hash;
+	}
+
+	/**
+	 * Get the hash of an image file, hashing it first if it is new or has
+	 * changed since it was last hashed
+	 *
+	 * @param fileName The name of the image file
+	 * @return The hash of the file, or null if it cannot be read as an image
+	 */
+	public Long hash(String fileName) {
+		if (fileName == null) {
+			return null;
+		}
+
+		try {
+			update(fileName);
+		} catch (IOException | RuntimeException ex) {
+			// A file that cannot be read is treated as having no hash
+			return null;
+		}
+		return get(fileName);
+	}
+
+	/**
+	 * Get the number of image files that have a hash
+	 *
+	 * @return The number of hashed files
+	 */
+	public int size() {
+		int count = 0;
+		for (Hashed entry : this.entries.values()) {
+			if (entry.hash != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Calculate the difference hash of an image. Transparent pixels are treated
+	 * as white
+	 *
+	 * @param image The image to hash
+	 * @return The 64 bit hash, with bit 8 * row + column set if that cell is
+	 *         brighter than the one to its left
+	 */
+	public static long dHash(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+
+		// Average the brightness of every pixel within each cell, reading a row of
+		// pixels at a time. Cells of an image smaller than the grid share pixels
+		double[] cells = new double[COLUMNS * ROWS];
+		int[] row = new int[width];
+		for (int cellY = 0; cellY < ROWS; cellY++) {
+			int top = cellY * height / ROWS;
+			int bottom = Math.max(top + 1, (cellY + 1) * height / ROWS);
+
+			for (int y = top; y < bottom; y++) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+				for (int cellX = 0; cellX < COLUMNS; cellX++) {
+					int left = cellX * width / COLUMNS;
+					int right = Math.max(left + 1, (cellX + 1) * width / COLUMNS);
+					double total = 0;
+					for (int x = left; x < right; x++) {
+						total += brightness(row[x]);
+					}
+					cells[cellY * COLUMNS + cellX] += total / ((double) (right - left) * (bottom - top));
+				}
+			}
+		}
+
+		long hash = 0;
+		for (int cellY = 0; cellY < ROWS; cellY++) {
+			for (int cellX = 0; cellX < COLUMNS - 1; cellX++) {
+				if (cells[cellY * COLUMNS + cellX + 1] > cells[cellY * COLUMNS + cellX]) {
+					hash |= 1L << (cellY * (COLUMNS - 1) + cellX);
+				}
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Get the Hamming distance between two hashes
+	 *
+	 * @param a The first hash
+	 * @param b The second hash
+	 * @return The number of bits the hashes differ in
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+	/*
+	 * Hash one file if it is new or has changed, returning true if it was
+	 */
+	private boolean update(String name) throws IOException {
+		Path file = this.directory.resolve(name);
+		long modified = Files.getLastModifiedTime(file).toMillis();
+		long length = Files.size(file);
+
+		Hashed entry = this.entries.get(name);
+		if (entry != null && entry.modified == modified && entry.length == length) {
+			return false;
+		}
+
+		// Only the first frame of an animated image is hashed
+		BufferedImage image = ImageIO.read(file.toFile());
+		this.entries.put(name, new Hashed(modified, length, image == null ? null : dHash(image)));
+		return true;
+	}
+
+	/*
+	 * Get the brightness of a pixel from 0 to 255, blended onto white by its alpha
+	 */
+	private static double brightness(int argb) {
+		int alpha = argb >>> 24;
+		double luma = 0.299 * ((argb >> 16) & 0xFF) + 0.587 * ((argb >> 8) & 0xFF) + 0.114 * (argb & 0xFF);
+		return (luma * alpha + 255.0 * (255 - alpha)) / 255;
+	}
+
+	/*
+	 * What is known of one image file
+	 */
+	private static class Hashed {
+		private long modified; // Modification time of the file, in milliseconds
+		private long length; // Length of the file in bytes
+		private Long hash; // Perceptual hash of the file, or null if it is not an image
+
+		/*
+		 * Constructor for a Hashed
+		 */
+		private Hashed(long modified, long length, Long hash) {
+			this.modified = modified;
+			this.length = length;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package part01;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The ImageIdIndex class maps image IDs to their position in the ImageManager
+ * collection. It is an open addressing hash table over primitive int arrays, so
+ * no Integer objects are created for either the keys or the values
+ */
+public class ImageIdIndex {
+
+	// Marker stored in the positions array for a free slot
+	private static final int EMPTY = -1;
+
+	// Largest share of the table that may be in use before it is doubled
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private int[] keys; // Store the image IDs
+	private int[] positions; // Store the position of each image ID in the collection
+	private int size; // Number of IDs currently in the index
+
+	/**
+	 * Constructor for the ImageIdIndex class
+	 */
+	public ImageIdIndex() {
+		this(16);
+	}
+
+	/**
+	 * Constructor for an ImageIdIndex sized for an expected number of IDs
+	 *
+	 * @param expected The number of IDs the index should hold without resizing
+	 */
+	public ImageIdIndex(int expected) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expected) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Record the position of an image ID. If the ID is already indexed, the first
+	 * position is kept so lookups match the order images were added in
+	 *
+	 * @param id       The image ID
+	 * @param position The position of the image in the collection
+	 * @return True if the ID was added, false if it was already present
+	 */
+	public boolean put(int id, int position) {
+		if (this.size + 1 > this.keys.length * LOAD_FACTOR) {
+			resize(this.keys.length << 1);
+		}
+
+		int mask = this.keys.length - 1;
+		int slot = mix(id) & mask;
+
+		// Probe linearly until the ID or a free slot is found
+		while (this.positions[slot] != EMPTY) {
+			if (this.keys[slot] == id) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		this.keys[slot] = id;
+		this.positions[slot] = position;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * Get the position of an image ID in the collection
+	 *
+	 * @param id The image ID to look up
+	 * @return The position of the image, or -1 if the ID is not indexed
+	 */
+	public int get(int id) {
+		int mask = this.keys.length - 1;
+		int slot = mix(id) & mask;
+
+		while (this.positions[slot] != EMPTY) {
+			if (this.keys[slot] == id) {
+				return this.positions[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return EMPTY;
+	}
+
+	/**
+	 * Get the number of IDs in the index
+	 *
+	 * @return The number of indexed IDs
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/*
+	 * Allocate empty key and position arrays of the given capacity
+	 */
+	private void allocate(int capacity) {
+		this.keys = new int[capacity];
+		this.positions = new int[capacity];
+		Arrays.fill(this.positions, EMPTY);
+		this.size = 0;
+	}
+
+	/*
+	 * Rehash every entry into arrays of the new capacity
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = this.keys;
+		int[] oldPositions = this.positions;
+		allocate(capacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldPositions[i] != EMPTY) {
+				put(oldKeys[i], oldPositions[i]);
+			}
+		}
+	}
+
+	/*
+	 * Spread the bits of an ID so sequential IDs do not cluster in the table
+	 */
+	private static int mix(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/*
+	 * Write the table to an index file
+	 */
+	void write(ImageIndexFile.Output out) throws IOException {
+		out.writeInt(this.size);
+		out.writeInts(this.keys, this.keys.length);
+		out.writeInts(this.positions, this.positions.length);
+	}
+
+	/*
+	 * Read a table written by write
+	 */
+	static ImageIdIndex read(ImageIndexFile.Input in) throws IOException {
+		ImageIdIndex index = new ImageIdIndex();
+		index.size = in.readInt();
+		index.keys = in.readInts(0);
+		index.positions = in.readInts(0);
+
+		// The table must be a power of two long with free slots left to end a probe
+		int capacity = index.keys.length;
+		if (capacity < 16 || Integer.bitCount(capacity) != 1 || index.positions.length != capacity
+				|| index.size < 0 || index.size > capacity * LOAD_FACTOR) {
+			throw new IOException("Damaged image index file.");
+		}
+		return index;
+	}
+}
@@ -0,0 +1,540 @@
+package part01;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The ImageIndexFile class reads and writes the file an ImageManager saves its
+ * column store and indexes to, alongside the ImageCatalogue they were built
+ * from, so that opening the catalogue again loads them rather than indexing
+ * every image again. Arrays are written whole and read back with bulk copies,
+ * so loading costs about as much as reading the file.
+ *
+ * The file starts with a magic number and version and ends with a checksum
+ * of everything before it and the magic number again. It is written under a
+ * temporary name and moved over the old file once complete, so a save that
+ * fails part way leaves the previous file in place
+ */
+public class ImageIndexFile {
+
+	// Identifies the file as saved image indexes ("QUBX")
+	private static final int MAGIC = 0x51554258;
+	private static final int VERSION = 1;
+
+	// Size of the buffer the file is read and written through
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	// Length written for a null string
+	private static final int NULL_LENGTH = -1;
+
+	// Bytes at the end of the file holding the checksum and magic number
+	private static final int TRAILER_SIZE = 8;
+
+	/**
+	 * Get the path the indexes of a catalogue are saved to, which is the path of
+	 * the catalogue with ".index" added to the name
+	 *
+	 * @param catalogue The path of the catalogue file
+	 * @return The path of the index file
+	 */
+	public static Path pathFor(Path catalogue) {
+		return catalogue.resolveSibling(catalogue.getFileName() + ".index");
+	}
+
+	/**
+	 * Start writing an index file. Nothing replaces the file at the path until
+	 * the Output is committed
+	 *
+	 * @param path The path of the index file
+	 * @return The Output to write the indexes to
+	 * @throws IOException If the temporary file cannot be created
+	 */
+	public static Output create(Path path) throws IOException {
+		Output out = new Output(path);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		return out;
+	}
+
+	/**
+	 * Open an index file to read the indexes back
+	 *
+	 * @param path The path of the index file
+	 * @return The Input to read the indexes from
+	 * @throws IOException If the file cannot be read, or is not a complete index
+	 *                     file of this version
+	 */
+	public static Input open(Path path) throws IOException {
+		Input in = new Input(path);
+		try {
+			if (in.size < 8 + TRAILER_SIZE || in.readTrailer() != MAGIC || in.readInt() != MAGIC
+					|| in.readInt() != VERSION) {
+				throw new IOException("'" + path + "' is not a complete image index file.");
+			}
+			return in;
+		} catch (IOException ex) {
+			in.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * The Output class writes an index file through a buffer, to a temporary file
+	 * that replaces the index file when it is committed
+	 */
+	public static class Output implements AutoCloseable {
+		private Path path; // The path of the index file
+		private Path temporary; // The path the file is written to until committed
+		private FileChannel channel; // Channel for the temporary file
+		private ByteBuffer buffer; // Store the bytes not yet written to the channel
+		private boolean isCommitted; // True once the file has replaced the old one
+		private CRC32 checksum = new CRC32(); // Checksum of the bytes written so far
+
+		/*
+		 * Constructor for an Output, creating the temporary file
+		 */
+		private Output(Path path) throws IOException {
+			this.path = path;
+			this.temporary = path.resolveSibling(path.getFileName() + ".tmp");
+			this.channel = FileChannel.open(this.temporary, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * Write an int
+		 *
+		 * @param value The int to write
+		 * @throws IOException If the file cannot be written
+		 */
+		public void writeInt(int value) throws IOException {
+			ensure(4);
+			this.buffer.putInt(value);
+		}
+
+		/**
+		 * Write a long
+		 *
+		 * @param value The long to write
+		 * @throws IOException If the file cannot be written
+		 */
+		public void writeLong(long value) throws IOException {
+			ensure(8);
+			this.buffer.putLong(value);
+		}
+
+		/**
+		 * Write the first values of an int array, preceded by their number
+		 *
+		 * @param values The array to write from
+		 * @param count  The number of values to write
+		 * @throws IOException If the file cannot be written
+		 */
+		public void writeInts(int[] values, int count) throws IOException {
+			writeInt(count);
+			for (int i = 0; i < count;) {
+				ensure(4);
+				int n = Math.min(count - i, this.buffer.remaining() / 4);
+				this.buffer.asIntBuffer().put(values, i, n);
+				this.buffer.position(this.buffer.position() + n * 4);
+				i += n;
+			}
+		}
+
+		/**
+		 * Write the first values of a long array, preceded by their number
+		 *
+		 * @param values The array to write from
+		 * @param count  The number of values to write
+		 * @throws IOException If the file cannot be written
+		 */
+		public void writeLongs(long[] values, int count) throws IOException {
+			writeInt(count);
+			for (int i = 0; i < count;) {
+				ensure(8);
+				int n = Math.min(count - i, this.buffer.remaining() / 8);
+				this.buffer.asLongBuffer().put(values, i, n);
+				this.buffer.position(this.buffer.position() + n * 8);
+				i += n;
+			}
+		}
+
+		/**
+		 * Write the first values of a char array, preceded by their number
+		 *
+		 * @param values The array to write from
+		 * @param count  The number of values to write
+		 * @throws IOException If the file cannot be written
+		 */
+		public void writeChars(char[] values, int count) throws IOException {
+			writeInt(count);
+			for (int i = 0; i < count;) {
+				ensure(2);
+				int n = Math.min(count - i, this.buffer.remaining() / 2);
+				this.buffer.asCharBuffer().put(values, i, n);
+				this.buffer.position(this.buffer.position() + n * 2);
+				i += n;
+			}
+		}
+
+		/**
+		 * Write the first values of a byte array, preceded by their number
+		 *
+		 * @param values The array to write from
+		 * @param count  The number of values to write
+		 * @throws IOException If the file cannot be written
+		 */
+		public void writeBytes(byte[] values, int count) throws IOException {
+			writeInt(count);
+			for (int i = 0; i < count;) {
+				ensure(1);
+				int n = Math.min(count - i, this.buffer.remaining());
+				this.buffer.put(values, i, n);
+				i += n;
+			}
+		}
+
+		/**
+		 * Write the first rows of an array of int arrays, each cut to its count
+		 *
+		 * @param rows   The rows to write
+		 * @param counts The number of values in use in each row
+		 * @param count  The number of rows to write
+		 * @throws IOException If the file cannot be written
+		 */
+		public void writeRows(int[][] rows, int[] counts, int count) throws IOException {
+			writeInt(count);
+			for (int i = 0; i < count; i++) {
+				writeInts(rows[i], counts[i]);
+			}
+		}
+
+		/**
+		 * Write the first strings of an array as UTF-8, preceded by their number
+		 *
+		 * @param strings The array to write from, which may hold nulls
+		 * @param count   The number of strings to write
+		 * @throws IOException If the file cannot be written
+		 */
+		public void writeStrings(String[] strings, int count) throws IOException {
+			writeInt(count);
+			for (int i = 0; i < count; i++) {
+				if (strings[i] == null) {
+					writeInt(NULL_LENGTH);
+				} else {
+					byte[] bytes = strings[i].getBytes(StandardCharsets.UTF_8);
+					writeBytes(bytes, bytes.length);
+				}
+			}
+		}
+
+		/**
+		 * Finish the file and move it over the old index file
+		 *
+		 * @throws IOException If the file cannot be written or moved
+		 */
+		public void commit() throws IOException {
+			flush();
+			this.buffer.putInt((int) this.checksum.getValue());
+			this.buffer.putInt(MAGIC);
+			flush();
+			this.channel.force(true);
+			this.channel.close();
+			Files.move(this.temporary, this.path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			this.isCommitted = true;
+		}
+
+		/**
+		 * Close the file, deleting it if it was not committed
+		 *
+		 * @throws IOException If the file cannot be closed or deleted
+		 */
+		public void close() throws IOException {
+			if (!this.isCommitted) {
+				this.channel.close();
+				Files.deleteIfExists(this.temporary);
+			}
+		}
+
+		/*
+		 * Make room in the buffer for a number of bytes, writing it out if needed
+		 */
+		private void ensure(int bytes) throws IOException {
+			if (this.buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		/*
+		 * Write everything in the buffer to the channel
+		 */
+		private void flush() throws IOException {
+			this.buffer.flip();
+			this.checksum.update(this.buffer.duplicate());
+			while (this.buffer.hasRemaining()) {
+				this.channel.write(this.buffer);
+			}
+			this.buffer.clear();
+		}
+	}
+
+	/**
+	 * The Input class reads an index file back through a buffer. Every count read
+	 * is checked against what is left of the file, so a damaged file fails with
+	 * an IOException rather than allocating a huge array, and the checksum is
+	 * checked once everything has been read
+	 */
+	public static class Input implements AutoCloseable {
+		private FileChannel channel; // Channel for the index file
+		private ByteBuffer buffer; // Store the bytes read but not yet used
+		private long size; // Number of bytes in the file
+		private long read; // Number of bytes of the file used so far
+		private long loaded; // Number of bytes of the file read into the buffer
+		private int expected; // Checksum written at the end of the file
+		private CRC32 checksum = new CRC32(); // Checksum of the bytes loaded so far
+
+		/*
+		 * Constructor for an Input, opening the file
+		 */
+		private Input(Path path) throws IOException {
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+			this.size = this.channel.size();
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			this.buffer.limit(0);
+		}
+
+		/**
+		 * Read an int
+		 *
+		 * @return The int read
+		 * @throws IOException If the file cannot be read or has ended
+		 */
+		public int readInt() throws IOException {
+			fill(4);
+			this.read += 4;
+			return this.buffer.getInt();
+		}
+
+		/**
+		 * Read a long
+		 *
+		 * @return The long read
+		 * @throws IOException If the file cannot be read or has ended
+		 */
+		public long readLong() throws IOException {
+			fill(8);
+			this.read += 8;
+			return this.buffer.getLong();
+		}
+
+		/**
+		 * Read an int array written by writeInts
+		 *
+		 * @param minLength The smallest length of the array returned, which is
+		 *                  padded with zeros beyond the values read
+		 * @return The array of the values read
+		 * @throws IOException If the file cannot be read or is damaged
+		 */
+		public int[] readInts(int minLength) throws IOException {
+			int count = readCount(4);
+			int[] values = new int[Math.max(count, minLength)];
+			for (int i = 0; i < count;) {
+				fill(4);
+				int n = Math.min(count - i, this.buffer.remaining() / 4);
+				this.buffer.asIntBuffer().get(values, i, n);
+				this.buffer.position(this.buffer.position() + n * 4);
+				i += n;
+			}
+			this.read += count * 4L;
+			return values;
+		}
+
+		/**
+		 * Read a long array written by writeLongs
+		 *
+		 * @param minLength The smallest length of the array returned, which is
+		 *                  padded with zeros beyond the values read
+		 * @return The array of the values read
+		 * @throws IOException If the file cannot be read or is damaged
+		 */
+		public long[] readLongs(int minLength) throws IOException {
+			int count = readCount(8);
+			long[] values = new long[Math.max(count, minLength)];
+			for (int i = 0; i < count;) {
+				fill(8);
+				int n = Math.min(count - i, this.buffer.remaining() / 8);
+				this.buffer.asLongBuffer().get(values, i, n);
+				this.buffer.position(this.buffer.position() + n * 8);
+				i += n;
+			}
+			this.read += count * 8L;
+			return values;
+		}
+
+		/**
+		 * Read a char array written by writeChars
+		 *
+		 * @param minLength The smallest length of the array returned, which is
+		 *                  padded with zeros beyond the values read
+		 * @return The array of the values read
+		 * @throws IOException If the file cannot be read or is damaged
+		 */
+		public char[] readChars(int minLength) throws IOException {
+			int count = readCount(2);
+			char[] values = new char[Math.max(count, minLength)];
+			for (int i = 0; i < count;) {
+				fill(2);
+				int n = Math.min(count - i, this.buffer.remaining() / 2);
+				this.buffer.asCharBuffer().get(values, i, n);
+				this.buffer.position(this.buffer.position() + n * 2);
+				i += n;
+			}
+			this.read += count * 2L;
+			return values;
+		}
+
+		/**
+		 * Read a byte array written by writeBytes
+		 *
+		 * @param minLength The smallest length of the array returned, which is
+		 *                  padded with zeros beyond the values read
+		 * @return The array of the values read
+		 * @throws IOException If the file cannot be read or is damaged
+		 */
+		public byte[] readBytes(int minLength) throws IOException {
+			int count = readCount(1);
+			byte[] values = new byte[Math.max(count, minLength)];
+			for (int i = 0; i < count;) {
+				fill(1);
+				int n = Math.min(count - i, this.buffer.remaining());
+				this.buffer.get(values, i, n);
+				i += n;
+			}
+			this.read += count;
+			return values;
+		}
+
+		/**
+		 * Read the rows written by writeRows
+		 *
+		 * @param minLength The smallest length of the array of rows returned
+		 * @return The rows read, each at least one value long so it can grow
+		 * @throws IOException If the file cannot be read or is damaged
+		 */
+		public int[][] readRows(int minLength) throws IOException {
+			int count = readCount(4);
+			int[][] rows = new int[Math.max(count, minLength)][];
+			for (int i = 0; i < count; i++) {
+				rows[i] = readInts(1);
+			}
+			return rows;
+		}
+
+		/**
+		 * Read the strings written by writeStrings
+		 *
+		 * @param minLength The smallest length of the array returned
+		 * @return The strings read, with nulls where nulls were written
+		 * @throws IOException If the file cannot be read or is damaged
+		 */
+		public String[] readStrings(int minLength) throws IOException {
+			int count = readCount(4);
+			String[] strings = new String[Math.max(count, minLength)];
+			for (int i = 0; i < count; i++) {
+				fill(4);
+				if (this.buffer.getInt(this.buffer.position()) == NULL_LENGTH) {
+					readInt();
+				} else {
+					byte[] bytes = readBytes(0);
+					strings[i] = new String(bytes, StandardCharsets.UTF_8);
+				}
+			}
+			return strings;
+		}
+
+		/**
+		 * Check that everything before the trailer has been read and matches the
+		 * checksum written with it
+		 *
+		 * @throws IOException If the file was not read to its end or is damaged
+		 */
+		public void verify() throws IOException {
+			if (this.read != this.size - TRAILER_SIZE || (int) this.checksum.getValue() != this.expected) {
+				throw new IOException("Damaged image index file.");
+			}
+		}
+
+		/**
+		 * Close the file
+		 *
+		 * @throws IOException If the file cannot be closed
+		 */
+		public void close() throws IOException {
+			this.channel.close();
+		}
+
+		/*
+		 * Read the checksum and magic number at the end of the file, returning the
+		 * magic number, without moving where reading has got to
+		 */
+		private int readTrailer() throws IOException {
+			ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (trailer.hasRemaining()) {
+				if (this.channel.read(trailer, this.size - TRAILER_SIZE + trailer.position()) < 0) {
+					throw new EOFException();
+				}
+			}
+			this.expected = trailer.getInt(0);
+			return trailer.getInt(4);
+		}
+
+		/*
+		 * Read the number of values of an array, checking that the file is long
+		 * enough to hold them
+		 */
+		private int readCount(int valueSize) throws IOException {
+			int count = readInt();
+			if (count < 0 || (long) count * valueSize > this.size - TRAILER_SIZE - this.read) {
+				throw new IOException("Damaged image index file.");
+			}
+			return count;
+		}
+
+		/*
+		 * Make sure the buffer holds at least a number of bytes, reading more of
+		 * the file if needed
+		 */
+		private void fill(int bytes) throws IOException {
+			if (this.buffer.remaining() >= bytes) {
+				return;
+			}
+
+			this.buffer.compact();
+			while (this.buffer.position() < bytes) {
+				int start = this.buffer.position();
+				int count = this.channel.read(this.buffer);
+				if (count < 0) {
+					throw new EOFException("Damaged image index file.");
+				}
+
+				// Add the bytes before the trailer to the checksum
+				int checked = (int) Math.max(0, Math.min(count, this.size - TRAILER_SIZE - this.loaded));
+				ByteBuffer added = this.buffer.duplicate();
+				added.position(start).limit(start + checked);
+				this.checksum.update(added);
+				this.loaded += count;
+			}
+			this.buffer.flip();
+		}
+	}
+}
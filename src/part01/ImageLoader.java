@@ -0,0 +1,699 @@
+package part01;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The ImageLoader class adds the images listed in a manifest file to an
+ * ImageManager in bulk. The manifest is streamed on the calling thread and cut
+ * into batches of records, which worker threads parse and validate while later
+ * batches are still being read. Valid images are appended in the order they
+ * appear in the manifest, and the indexes of the manager are only extended
+ * once every batch has been appended. A record that cannot be loaded is
+ * written to a reject file with the reason, rather than stopping the load.
+ *
+ * Manifests whose name ends in ".json" or ".jsonl" hold JSON objects, either
+ * in an array or one per line, with the string fields "title", "description",
+ * "genre", "date" and "thumbnail". Any other manifest is read as CSV with the
+ * fields in that order, double quoted where they contain a comma, quote or
+ * line break, and with an optional header line naming them
+ */
+public class ImageLoader {
+
+	// Names of the fields of a record, in the order of the CSV columns
+	private static final String[] FIELDS = { "title", "description", "genre", "date", "thumbnail" };
+	private static final int TITLE = 0;
+	private static final int DESCRIPTION = 1;
+	private static final int GENRE = 2;
+	private static final int DATE = 3;
+	private static final int THUMBNAIL = 4;
+
+	private ImageManager manager; // The manager the images are added to
+	private int threads; // Number of worker threads parsing batches
+	private int batchSize; // Number of records in each batch
+
+	private int loaded; // Number of images added by the last load
+	private int rejected; // Number of records rejected by the last load
+
+	/**
+	 * Constructor for the ImageLoader class, with one worker thread for each
+	 * available processor
+	 *
+	 * @param manager The ImageManager to add the images to
+	 */
+	public ImageLoader(ImageManager manager) {
+		this(manager, Runtime.getRuntime().availableProcessors(), 4096);
+	}
+
+	/**
+	 * Constructor for an ImageLoader with a given number of worker threads and
+	 * batch size
+	 *
+	 * @param manager   The ImageManager to add the images to
+	 * @param threads   The number of worker threads parsing batches
+	 * @param batchSize The number of records in each batch
+	 */
+	public ImageLoader(ImageManager manager, int threads, int batchSize) {
+		this.manager = manager;
+		this.threads = Math.max(1, threads);
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Add the images listed in a manifest file to the manager. If the load fails
+	 * part way through, the images of the batches appended so far are kept
+	 *
+	 * @param manifest The path of the CSV or JSON manifest
+	 * @param rejects  The path of the file rejected records are written to, one
+	 *                 per line as the line number, reason and record separated by
+	 *                 tabs, or null if they should only be counted
+	 * @return The number of images added
+	 * @throws IOException If the manifest cannot be read or the reject file
+	 *                     cannot be written
+	 */
+	public int load(Path manifest, Path rejects) throws IOException {
+		String name = manifest.getFileName().toString().toLowerCase();
+		boolean isJson = name.endsWith(".json") || name.endsWith(".jsonl");
+
+		this.loaded = 0;
+		this.rejected = 0;
+		int from = this.manager.size();
+
+		// Use daemon threads so a failed load does not stop the program exiting
+		ExecutorService executor = Executors.newFixedThreadPool(this.threads, task -> {
+			Thread thread = new Thread(task, "image-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// Batches being parsed, in manifest order
+		ArrayDeque<Future<Batch>> parsing = new ArrayDeque<Future<Batch>>();
+
+		// The exception that failed the load, so a later one does not hide it
+		Throwable failure = null;
+
+		try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8);
+				BufferedWriter rejectWriter = rejects == null ? null
+						: Files.newBufferedWriter(rejects, StandardCharsets.UTF_8)) {
+			RecordReader records = new RecordReader(reader, isJson);
+			Batch batch = new Batch(this.batchSize, isJson);
+
+			String record = records.next();
+			if (!isJson && record != null && isHeader(record)) {
+				record = records.next();
+			}
+
+			while (record != null) {
+				batch.add(record, records.getLine());
+
+				if (batch.size == this.batchSize) {
+					parsing.add(executor.submit(batch::parse));
+					batch = new Batch(this.batchSize, isJson);
+
+					// Bound the batches held in memory by appending the oldest ones
+					while (parsing.size() > this.threads * 2) {
+						append(parsing.remove(), rejectWriter);
+					}
+				}
+
+				record = records.next();
+			}
+
+			if (batch.size > 0) {
+				parsing.add(executor.submit(batch::parse));
+			}
+			while (!parsing.isEmpty()) {
+				append(parsing.remove(), rejectWriter);
+			}
+		} catch (IOException | RuntimeException | Error ex) {
+			failure = ex;
+			throw ex;
+		} finally {
+			executor.shutdownNow();
+
+			// Index everything appended in one pass, even if the load failed
+			try {
+				this.manager.storeImages(from);
+			} catch (RuntimeException ex) {
+				if (failure == null) {
+					throw ex;
+				}
+				failure.addSuppressed(ex);
+			}
+		}
+
+		return this.loaded;
+	}
+
+	/**
+	 * Get the number of images added by the last load
+	 *
+	 * @return The number of images added
+	 */
+	public int getLoaded() {
+		return this.loaded;
+	}
+
+	/**
+	 * Get the number of records rejected by the last load
+	 *
+	 * @return The number of rejected records
+	 */
+	public int getRejected() {
+		return this.rejected;
+	}
+
+	/*
+	 * Wait for a batch to be parsed, then append its valid images to the column
+	 * store of the manager and write out its rejected records
+	 */
+	private void append(Future<Batch> future, BufferedWriter rejects) throws IOException {
+		Batch batch;
+		try {
+			batch = future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Loading the manifest was interrupted.");
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IllegalStateException(ex.getCause());
+		}
+
+		// Claim the IDs of the whole batch at once, in manifest order
+		int id = ImageRecord.reserveIds(batch.size - batch.invalid);
+		ImageColumns columns = this.manager.getColumns();
+
+		for (int i = 0; i < batch.size; i++) {
+			if (batch.reasons[i] == null) {
+				columns.add(id++, batch.titles[i], batch.descriptions[i], batch.genres[i], batch.epochDays[i],
+						batch.thumbnails[i]);
+				this.loaded++;
+			} else {
+				this.rejected++;
+				if (rejects != null) {
+					rejects.write(batch.lines[i] + "\t" + batch.reasons[i] + "\t" + batch.records[i]);
+					rejects.newLine();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Check whether a CSV record is a header line naming the fields
+	 */
+	private static boolean isHeader(String record) {
+		String[] fields = new String[FIELDS.length];
+		if (Batch.splitCsv(record, fields) != FIELDS.length) {
+			return false;
+		}
+
+		for (int i = 0; i < FIELDS.length; i++) {
+			if (!FIELDS[i].equalsIgnoreCase(fields[i].trim())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * A batch of raw records, which a worker thread parses into the fields of
+	 * each image and a reason for each record that is rejected
+	 */
+	private static class Batch {
+
+		private boolean isJson; // True if the records are JSON objects rather than CSV
+		private String[] records; // Store the text of each record
+		private int[] lines; // Store the line of the manifest each record starts on
+		private int size; // Number of records in the batch
+
+		private String[] titles; // Store the parsed title of each record
+		private String[] descriptions; // Store the parsed description of each record
+		private byte[] genres; // Store the parsed genre ordinal of each record
+		private int[] epochDays; // Store the parsed epoch day of each record
+		private String[] thumbnails; // Store the parsed thumbnail of each record
+		private String[] reasons; // Store why each record was rejected, or null
+		private int invalid; // Number of rejected records
+
+		private int cursor; // Index into the JSON record being parsed
+
+		/*
+		 * Constructor for an empty Batch
+		 */
+		private Batch(int capacity, boolean isJson) {
+			this.isJson = isJson;
+			this.records = new String[capacity];
+			this.lines = new int[capacity];
+		}
+
+		/*
+		 * Add a raw record to the batch
+		 */
+		private void add(String record, int line) {
+			this.records[this.size] = record;
+			this.lines[this.size] = line;
+			this.size++;
+		}
+
+		/*
+		 * Parse and validate every record of the batch
+		 */
+		private Batch parse() {
+			this.titles = new String[this.size];
+			this.descriptions = new String[this.size];
+			this.genres = new byte[this.size];
+			this.epochDays = new int[this.size];
+			this.thumbnails = new String[this.size];
+			this.reasons = new String[this.size];
+
+			String[] fields = new String[FIELDS.length];
+			for (int i = 0; i < this.size; i++) {
+				fields[TITLE] = null;
+				fields[DESCRIPTION] = null;
+				fields[GENRE] = null;
+				fields[DATE] = null;
+				fields[THUMBNAIL] = null;
+
+				if (this.isJson) {
+					if (!splitJson(this.records[i], fields)) {
+						this.reasons[i] = "Malformed JSON object";
+					}
+				} else {
+					int count = splitCsv(this.records[i], fields);
+					if (count < 0) {
+						this.reasons[i] = "Malformed CSV quoting";
+					} else if (count != FIELDS.length) {
+						this.reasons[i] = "Expected " + FIELDS.length + " fields but found " + count;
+					}
+				}
+
+				if (this.reasons[i] == null) {
+					this.reasons[i] = validate(fields, i);
+				}
+				if (this.reasons[i] != null) {
+					this.invalid++;
+				}
+			}
+
+			return this;
+		}
+
+		/*
+		 * Check the fields of a record with the same rules as the ImageRecord
+		 * setters and store them, returning every reason they are invalid, or
+		 * null if they are valid
+		 */
+		private String validate(String[] fields, int i) {
+			int errors = 0;
+
+			if (fields[TITLE] == null || fields[TITLE].isEmpty()) {
+				errors |= ImageValidation.BAD_TITLE;
+			}
+			if (fields[DESCRIPTION] == null || fields[DESCRIPTION].isEmpty()) {
+				errors |= ImageValidation.BAD_DESCRIPTION;
+			}
+			if (fields[THUMBNAIL] == null || fields[THUMBNAIL].isEmpty()) {
+				errors |= ImageValidation.BAD_THUMBNAIL;
+			}
+			int epochDay = ImageDates.parse(fields[DATE]);
+			if (!ImageDates.isValid(epochDay)) {
+				errors |= ImageValidation.BAD_DATE;
+			}
+
+			// Only build a message for the records that are rejected
+			if (errors != 0) {
+				String reasons = ImageValidation.describe(errors, fields[TITLE], fields[DESCRIPTION],
+						fields[THUMBNAIL], fields[DATE], "; ");
+				return reasons.substring(0, reasons.length() - 2);
+			}
+
+			// A missing or unknown genre is OTHER in either format, as setGenre makes it
+
+			this.titles[i] = fields[TITLE];
+			this.descriptions[i] = fields[DESCRIPTION];
+			this.genres[i] = (byte) ImageRecord.parseGenre(fields[GENRE]).ordinal();
+			this.epochDays[i] = epochDay;
+			this.thumbnails[i] = fields[THUMBNAIL];
+			return null;
+		}
+
+		/*
+		 * Split a CSV record into its fields, returning the number of fields it
+		 * has, or -1 if its quoting is malformed. Only as many fields as fit in
+		 * the array are stored
+		 */
+		private static int splitCsv(String record, String[] fields) {
+			int count = 0;
+			int i = 0;
+			int length = record.length();
+
+			while (true) {
+				String field;
+				if (i < length && record.charAt(i) == '"') {
+					// A quoted field runs to the next lone quote, with "" standing for "
+					StringBuilder sb = new StringBuilder();
+					i++;
+					while (true) {
+						if (i == length) {
+							return -1;
+						}
+						char c = record.charAt(i++);
+						if (c != '"') {
+							sb.append(c);
+						} else if (i < length && record.charAt(i) == '"') {
+							sb.append('"');
+							i++;
+						} else {
+							break;
+						}
+					}
+					if (i < length && record.charAt(i) != ',') {
+						return -1;
+					}
+					field = sb.toString();
+				} else {
+					int comma = record.indexOf(',', i);
+					if (comma < 0) {
+						comma = length;
+					}
+					field = record.substring(i, comma);
+					i = comma;
+				}
+
+				if (count < fields.length) {
+					fields[count] = field;
+				}
+				count++;
+
+				if (i == length) {
+					return count;
+				}
+				i++; // Skip the comma
+			}
+		}
+
+		/*
+		 * Split a flat JSON object into the fields it names, returning false if
+		 * it is not a valid object of string or null values. Unknown names are
+		 * ignored
+		 */
+		private boolean splitJson(String record, String[] fields) {
+			this.cursor = 0;
+			if (!expect(record, '{')) {
+				return false;
+			}
+			if (expect(record, '}')) {
+				return isAtEnd(record);
+			}
+
+			do {
+				String name = readString(record);
+				if (name == null || !expect(record, ':')) {
+					return false;
+				}
+
+				String value;
+				skipWhitespace(record);
+				if (record.startsWith("null", this.cursor)) {
+					value = null;
+					this.cursor += 4;
+				} else {
+					value = readString(record);
+					if (value == null) {
+						return false;
+					}
+				}
+
+				for (int i = 0; i < FIELDS.length; i++) {
+					if (FIELDS[i].equals(name)) {
+						fields[i] = value;
+					}
+				}
+			} while (expect(record, ','));
+
+			return expect(record, '}') && isAtEnd(record);
+		}
+
+		/*
+		 * Read a JSON string at the cursor, returning null if there is none
+		 */
+		private String readString(String record) {
+			if (!expect(record, '"')) {
+				return null;
+			}
+
+			StringBuilder sb = new StringBuilder();
+			while (this.cursor < record.length()) {
+				char c = record.charAt(this.cursor++);
+				if (c == '"') {
+					return sb.toString();
+				} else if (c != '\\') {
+					sb.append(c);
+				} else if (this.cursor == record.length()) {
+					return null;
+				} else {
+					char escape = record.charAt(this.cursor++);
+					switch (escape) {
+					case 'b':
+						sb.append('\b');
+						break;
+					case 'f':
+						sb.append('\f');
+						break;
+					case 'n':
+						sb.append('\n');
+						break;
+					case 'r':
+						sb.append('\r');
+						break;
+					case 't':
+						sb.append('\t');
+						break;
+					case 'u':
+						if (this.cursor + 4 > record.length()) {
+							return null;
+						}
+						try {
+							sb.append((char) Integer.parseInt(record.substring(this.cursor, this.cursor + 4), 16));
+						} catch (NumberFormatException ex) {
+							return null;
+						}
+						this.cursor += 4;
+						break;
+					default:
+						sb.append(escape);
+						break;
+					}
+				}
+			}
+
+			// The string was never closed
+			return null;
+		}
+
+		/*
+		 * Move the cursor past a character after any whitespace, returning false
+		 * if that character is not next
+		 */
+		private boolean expect(String record, char c) {
+			skipWhitespace(record);
+			if (this.cursor < record.length() && record.charAt(this.cursor) == c) {
+				this.cursor++;
+				return true;
+			}
+			return false;
+		}
+
+		/*
+		 * Check that only whitespace is left after the cursor
+		 */
+		private boolean isAtEnd(String record) {
+			skipWhitespace(record);
+			return this.cursor == record.length();
+		}
+
+		/*
+		 * Move the cursor past any whitespace
+		 */
+		private void skipWhitespace(String record) {
+			while (this.cursor < record.length() && Character.isWhitespace(record.charAt(this.cursor))) {
+				this.cursor++;
+			}
+		}
+	}
+
+	/*
+	 * Cuts a manifest into the text of each record. CSV records end at a line
+	 * break outside quotes and blank lines are skipped. JSON records are the
+	 * objects at the top level of the file or of an array, and anything between
+	 * them is skipped
+	 */
+	private static class RecordReader {
+
+		private Reader reader; // The reader of the manifest
+		private boolean isJson; // True if the manifest holds JSON objects rather than CSV
+		private char[] buffer; // Store the characters read but not yet used
+		private int index; // Index of the next character in the buffer
+		private int limit; // Number of characters in the buffer
+		private int line; // Line of the manifest the next character is on
+		private int recordLine; // Line of the manifest the last record started on
+		private StringBuilder record; // Store the text of the record being read
+
+		/*
+		 * Constructor for a RecordReader over a manifest
+		 */
+		private RecordReader(Reader reader, boolean isJson) {
+			this.reader = reader;
+			this.isJson = isJson;
+			this.buffer = new char[1 << 16];
+			this.line = 1;
+			this.record = new StringBuilder();
+		}
+
+		/*
+		 * Get the line of the manifest the last record started on
+		 */
+		private int getLine() {
+			return this.recordLine;
+		}
+
+		/*
+		 * Read the text of the next record, or null at the end of the manifest
+		 */
+		private String next() throws IOException {
+			return this.isJson ? nextObject() : nextLine();
+		}
+
+		/*
+		 * Read the next CSV record that is not blank
+		 */
+		private String nextLine() throws IOException {
+			this.record.setLength(0);
+			this.recordLine = this.line;
+			boolean isQuoted = false;
+			boolean isFieldStart = true; // At the start of a field
+			boolean isClosed = false; // Just after the quote closing a quoted field
+
+			int c;
+			while ((c = read()) != -1) {
+				boolean wasFieldStart = isFieldStart;
+				boolean wasClosed = isClosed;
+				isFieldStart = false;
+				isClosed = false;
+
+				if (c == '"') {
+					// Only a quote starting a field opens quotes, as splitCsv reads them,
+					// and a doubled quote inside quotes closes and reopens them
+					if (isQuoted) {
+						isQuoted = false;
+						isClosed = true;
+					} else if (wasFieldStart || wasClosed) {
+						isQuoted = true;
+					}
+				} else if (c == ',' && !isQuoted) {
+					isFieldStart = true;
+				} else if (c == '\n') {
+					this.line++;
+					if (!isQuoted) {
+						int length = this.record.length();
+						if (length > 0 && this.record.charAt(length - 1) == '\r') {
+							this.record.setLength(length - 1);
+						}
+						if (this.record.length() > 0) {
+							return this.record.toString();
+						}
+
+						// Skip the blank line
+						this.recordLine = this.line;
+						isFieldStart = true;
+						continue;
+					}
+				}
+				this.record.append((char) c);
+			}
+
+			// The last record may not end with a line break, or may end inside quotes
+			int length = this.record.length();
+			while (length > 0 && (this.record.charAt(length - 1) == '\r' || this.record.charAt(length - 1) == '\n')) {
+				this.record.setLength(--length);
+			}
+			return this.record.length() > 0 ? this.record.toString() : null;
+		}
+
+		/*
+		 * Read the next top level JSON object
+		 */
+		private String nextObject() throws IOException {
+			this.record.setLength(0);
+
+			// Skip to the start of the object
+			int c;
+			while ((c = read()) != '{') {
+				if (c == -1) {
+					return null;
+				} else if (c == '\n') {
+					this.line++;
+				}
+			}
+			this.recordLine = this.line;
+
+			// Read to the brace that closes it, ignoring braces within strings
+			int depth = 0;
+			boolean isString = false;
+			boolean isEscaped = false;
+			do {
+				this.record.append((char) c);
+				if (isEscaped) {
+					isEscaped = false;
+				} else if (isString) {
+					isEscaped = c == '\\';
+					isString = c != '"';
+				} else if (c == '"') {
+					isString = true;
+				} else if (c == '{') {
+					depth++;
+				} else if (c == '}') {
+					depth--;
+				}
+
+				if (depth == 0) {
+					return this.record.toString();
+				}
+				c = read();
+				if (c == '\n') {
+					this.line++;
+				}
+			} while (c != -1);
+
+			// An object cut off by the end of the manifest is rejected when parsed
+			return this.record.toString();
+		}
+
+		/*
+		 * Read the next character of the manifest, or -1 at its end
+		 */
+		private int read() throws IOException {
+			if (this.index == this.limit) {
+				this.limit = this.reader.read(this.buffer);
+				this.index = 0;
+				if (this.limit <= 0) {
+					this.limit = 0;
+					return -1;
+				}
+			}
+			return this.buffer[this.index++];
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package part01;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * The ImageMetrics class holds a LatencyHistogram for each timed operation,
+ * by name. Operations look up their histogram once and keep it, so timing
+ * them never goes through the map. The histograms can be summarised as a
+ * table, or dumped to a file with every bucket for further analysis
+ */
+public class ImageMetrics {
+
+	// Store the histogram of each operation, in the order they were added
+	private LinkedHashMap<String, LatencyHistogram> histograms;
+
+	/**
+	 * Constructor for the ImageMetrics class
+	 */
+	public ImageMetrics() {
+		this.histograms = new LinkedHashMap<String, LatencyHistogram>();
+	}
+
+	/**
+	 * Get the histogram of an operation, adding it if it does not exist yet
+	 *
+	 * @param name The name of the operation
+	 * @return The LatencyHistogram timing the operation
+	 */
+	public synchronized LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = this.histograms.get(name);
+		if (histogram == null) {
+			histogram = new LatencyHistogram(name);
+			this.histograms.put(name, histogram);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Get the histogram of every operation
+	 *
+	 * @return A list of the LatencyHistograms, in the order they were added
+	 */
+	public synchronized ArrayList<LatencyHistogram> getHistograms() {
+		return new ArrayList<LatencyHistogram>(this.histograms.values());
+	}
+
+	/**
+	 * Clear the times recorded for every operation
+	 */
+	public synchronized void reset() {
+		for (LatencyHistogram histogram : this.histograms.values()) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Write the summary table to a file, followed by the count of every non-empty
+	 * bucket of each operation as tab separated lines of the operation, the
+	 * lowest and highest nanoseconds of the bucket and its count
+	 *
+	 * @param path The path of the file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public void dump(Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write(toString());
+			writer.newLine();
+			writer.write("operation\tlowest_ns\thighest_ns\tcount");
+			writer.newLine();
+
+			for (LatencyHistogram histogram : getHistograms()) {
+				for (int i = 0; i < LatencyHistogram.getBucketTotal(); i++) {
+					long count = histogram.getBucketCount(i);
+					if (count > 0) {
+						writer.write(histogram.getName() + "\t" + LatencyHistogram.lowestOf(i) + "\t"
+								+ LatencyHistogram.highestOf(i) + "\t" + count);
+						writer.newLine();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return a table summarising the times of every operation in microseconds
+	 *
+	 * @return A string with a line for each operation
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-20s %10s %10s %10s %10s %10s %10s%n", "Operation", "Count", "Mean us", "p50 us",
+				"p90 us", "p99 us", "Max us"));
+
+		for (LatencyHistogram histogram : getHistograms()) {
+			sb.append(String.format("%-20s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", histogram.getName(),
+					histogram.getCount(), histogram.getMean() / 1000, histogram.getValueAtPercentile(50) / 1000.0,
+					histogram.getValueAtPercentile(90) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+					histogram.getMax() / 1000.0));
+		}
+
+		return sb.toString();
+	}
+}
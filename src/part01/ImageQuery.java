@@ -0,0 +1,424 @@
+package part01;
+
+import java.time.LocalDate;
+
+/**
+ * The ImageQuery class describes a search over an ImageManager as a tree of
+ * predicates combined with AND, OR and NOT. Queries are built with the static
+ * methods of this class and run with ImageManager.search, which uses an
+ * ImageQueryPlanner to decide which index to start from
+ */
+public abstract class ImageQuery {
+
+	/**
+	 * Create a query matching images whose title contains a string
+	 *
+	 * @param str The string to search for in image titles
+	 * @return The title query
+	 */
+	public static ImageQuery title(String str) {
+		return new TitleQuery(str, false);
+	}
+
+	/**
+	 * Create a query matching images whose title contains a string, optionally
+	 * ignoring case and accents
+	 *
+	 * @param str        The string to search for in image titles
+	 * @param ignoreCase True if the title only has to contain the string when both
+	 *                   are folded to lower case without accents
+	 * @return The title query
+	 */
+	public static ImageQuery title(String str, boolean ignoreCase) {
+		return new TitleQuery(str, ignoreCase);
+	}
+
+	/**
+	 * Create a query matching images whose description contains a string
+	 *
+	 * @param str The string to search for in image descriptions
+	 * @return The description query
+	 */
+	public static ImageQuery description(String str) {
+		return new DescriptionQuery(str, false);
+	}
+
+	/**
+	 * Create a query matching images whose description contains a string,
+	 * optionally ignoring case and accents
+	 *
+	 * @param str        The string to search for in image descriptions
+	 * @param ignoreCase True if the description only has to contain the string
+	 *                   when both are folded to lower case without accents
+	 * @return The description query
+	 */
+	public static ImageQuery description(String str, boolean ignoreCase) {
+		return new DescriptionQuery(str, ignoreCase);
+	}
+
+	/**
+	 * Create a query matching images of a genre
+	 *
+	 * @param type The ImageType (genre) to search for
+	 * @return The genre query
+	 */
+	public static ImageQuery genre(ImageType type) {
+		return new GenreQuery(type);
+	}
+
+	/**
+	 * Create a query matching images taken within a date range
+	 *
+	 * @param start     The start date of the date range
+	 * @param end       The end date of the date range
+	 * @param inclusive True if images taken on the start or end date should match
+	 * @return The date query
+	 */
+	public static ImageQuery dates(LocalDate start, LocalDate end, boolean inclusive) {
+		return new DateQuery(start, end, inclusive);
+	}
+
+	/**
+	 * Create a query matching images that match every one of the given queries
+	 *
+	 * @param queries The queries to combine
+	 * @return The combined query
+	 */
+	public static ImageQuery and(ImageQuery... queries) {
+		return new AndQuery(queries);
+	}
+
+	/**
+	 * Create a query matching images that match any of the given queries
+	 *
+	 * @param queries The queries to combine
+	 * @return The combined query
+	 */
+	public static ImageQuery or(ImageQuery... queries) {
+		return new OrQuery(queries);
+	}
+
+	/**
+	 * Create a query matching images that do not match the given query
+	 *
+	 * @param query The query to negate
+	 * @return The negated query
+	 */
+	public static ImageQuery not(ImageQuery query) {
+		return new NotQuery(query);
+	}
+
+	/**
+	 * Check whether a single image matches the query
+	 *
+	 * @param image The ImageRecord to check
+	 * @return True if the image matches, false otherwise
+	 */
+	public abstract boolean matches(ImageRecord image);
+
+	/*
+	 * Check whether the image at a position of a column store matches the query.
+	 * Predicates override this to read their field straight from its column
+	 */
+	boolean matches(ImageColumns columns, int position) {
+		return matches(columns.getImage(position));
+	}
+
+	/*
+	 * Get the combined queries of an AND, OR or NOT query, which is empty for a
+	 * single predicate
+	 */
+	ImageQuery[] getChildren() {
+		return new ImageQuery[0];
+	}
+
+	/*
+	 * A single predicate that an index of the ImageManager may be able to answer
+	 */
+	abstract static class IndexedQuery extends ImageQuery {
+
+		/*
+		 * Estimate how many images of the collection match the predicate, or return
+		 * -1 if no index can answer it
+		 */
+		abstract int estimate(ImageManager images);
+
+		/*
+		 * Look up the positions of the matching images in an index. Only called
+		 * when estimate does not return -1
+		 */
+		abstract int[] lookup(ImageManager images);
+
+		/*
+		 * Check whether lookup returns positions in date order rather than
+		 * ascending position order
+		 */
+		boolean isDateOrdered() {
+			return false;
+		}
+	}
+
+	/*
+	 * The ImageQuery matching a substring of the title
+	 */
+	private static class TitleQuery extends IndexedQuery {
+		private String str;
+		private boolean ignoreCase;
+		private String folded; // The string folded by ImageFolding, if case is ignored
+		private byte[] needle; // The UTF-8 bytes of the string matched, once encoded
+
+		TitleQuery(String str, boolean ignoreCase) {
+			this.str = str;
+			this.ignoreCase = ignoreCase;
+			this.folded = ignoreCase ? ImageFolding.fold(str) : null;
+		}
+
+		public boolean matches(ImageRecord image) {
+			if (ignoreCase) {
+				return ImageFolding.fold(image.getTitle()).contains(folded);
+			}
+			return image.getTitle().contains(str);
+		}
+
+		boolean matches(ImageColumns columns, int position) {
+			if (needle == null) {
+				needle = ImageStrings.encode(ignoreCase ? folded : str);
+			}
+			return (ignoreCase ? columns.getFoldedTitles() : columns.getTitles()).contains(position, needle);
+		}
+
+		int estimate(ImageManager images) {
+			return images.estimateTitle(str);
+		}
+
+		int[] lookup(ImageManager images) {
+			return images.matchTitle(str, ignoreCase);
+		}
+
+		public String toString() {
+			return "title contains '" + str + "'" + (ignoreCase ? " ignoring case" : "");
+		}
+	}
+
+	/*
+	 * The ImageQuery matching a substring of the description
+	 */
+	private static class DescriptionQuery extends IndexedQuery {
+		private String str;
+		private boolean ignoreCase;
+		private String folded; // The string folded by ImageFolding, if case is ignored
+		private byte[] needle; // The UTF-8 bytes of the string matched, once encoded
+
+		DescriptionQuery(String str, boolean ignoreCase) {
+			this.str = str;
+			this.ignoreCase = ignoreCase;
+			this.folded = ignoreCase ? ImageFolding.fold(str) : null;
+		}
+
+		public boolean matches(ImageRecord image) {
+			if (ignoreCase) {
+				return ImageFolding.fold(image.getDescription()).contains(folded);
+			}
+			return image.getDescription().contains(str);
+		}
+
+		boolean matches(ImageColumns columns, int position) {
+			if (needle == null) {
+				needle = ImageStrings.encode(ignoreCase ? folded : str);
+			}
+			return (ignoreCase ? columns.getFoldedDescriptions() : columns.getDescriptions()).contains(position,
+					needle);
+		}
+
+		int estimate(ImageManager images) {
+			return images.estimateDescription(str);
+		}
+
+		int[] lookup(ImageManager images) {
+			return images.matchDescription(str, ignoreCase);
+		}
+
+		public String toString() {
+			return "description contains '" + str + "'" + (ignoreCase ? " ignoring case" : "");
+		}
+	}
+
+	/*
+	 * The ImageQuery matching a genre
+	 */
+	private static class GenreQuery extends IndexedQuery {
+		private ImageType type;
+
+		GenreQuery(ImageType type) {
+			this.type = type;
+		}
+
+		public boolean matches(ImageRecord image) {
+			return image.getGenre() == type;
+		}
+
+		boolean matches(ImageColumns columns, int position) {
+			return type != null && columns.getGenreOrdinal(position) == type.ordinal();
+		}
+
+		int estimate(ImageManager images) {
+			return images.countGenre(type);
+		}
+
+		int[] lookup(ImageManager images) {
+			return images.matchGenre(type);
+		}
+
+		public String toString() {
+			return "genre is " + (type == null ? null : type.name());
+		}
+	}
+
+	/*
+	 * The ImageQuery matching a date range
+	 */
+	private static class DateQuery extends IndexedQuery {
+		private LocalDate start;
+		private LocalDate end;
+		private boolean inclusive;
+
+		DateQuery(LocalDate start, LocalDate end, boolean inclusive) {
+			this.start = start;
+			this.end = end;
+			this.inclusive = inclusive;
+		}
+
+		public boolean matches(ImageRecord image) {
+			LocalDate date = image.getDateTaken();
+			if (inclusive) {
+				return !date.isBefore(start) && !date.isAfter(end);
+			}
+			return date.isAfter(start) && date.isBefore(end);
+		}
+
+		boolean matches(ImageColumns columns, int position) {
+			long day = columns.getEpochDay(position);
+			if (inclusive) {
+				return day >= start.toEpochDay() && day <= end.toEpochDay();
+			}
+			return day > start.toEpochDay() && day < end.toEpochDay();
+		}
+
+		int estimate(ImageManager images) {
+			return images.countDates(start, end, inclusive);
+		}
+
+		int[] lookup(ImageManager images) {
+			return images.matchDates(start, end, inclusive);
+		}
+
+		boolean isDateOrdered() {
+			return true;
+		}
+
+		public String toString() {
+			return "date " + (inclusive ? "from " : "after ") + start + (inclusive ? " to " : " and before ") + end;
+		}
+	}
+
+	/*
+	 * The ImageQuery matching every one of its child queries
+	 */
+	static class AndQuery extends ImageQuery {
+		private ImageQuery[] queries;
+
+		AndQuery(ImageQuery[] queries) {
+			this.queries = queries;
+		}
+
+		public boolean matches(ImageRecord image) {
+			for (ImageQuery query : queries) {
+				if (!query.matches(image)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		boolean matches(ImageColumns columns, int position) {
+			for (ImageQuery query : queries) {
+				if (!query.matches(columns, position)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		ImageQuery[] getChildren() {
+			return queries;
+		}
+
+		public String toString() {
+			return "AND";
+		}
+	}
+
+	/*
+	 * The ImageQuery matching any of its child queries
+	 */
+	static class OrQuery extends ImageQuery {
+		private ImageQuery[] queries;
+
+		OrQuery(ImageQuery[] queries) {
+			this.queries = queries;
+		}
+
+		public boolean matches(ImageRecord image) {
+			for (ImageQuery query : queries) {
+				if (query.matches(image)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean matches(ImageColumns columns, int position) {
+			for (ImageQuery query : queries) {
+				if (query.matches(columns, position)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		ImageQuery[] getChildren() {
+			return queries;
+		}
+
+		public String toString() {
+			return "OR";
+		}
+	}
+
+	/*
+	 * The ImageQuery matching the images its child query does not
+	 */
+	static class NotQuery extends ImageQuery {
+		private ImageQuery query;
+
+		NotQuery(ImageQuery query) {
+			this.query = query;
+		}
+
+		public boolean matches(ImageRecord image) {
+			return !query.matches(image);
+		}
+
+		boolean matches(ImageColumns columns, int position) {
+			return !query.matches(columns, position);
+		}
+
+		ImageQuery[] getChildren() {
+			return new ImageQuery[] { query };
+		}
+
+		public String toString() {
+			return "NOT";
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package part01;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The ImageQueryPlan class is one step of the plan an ImageQueryPlanner builds
+ * for an ImageQuery. Each step produces the positions of the images it
+ * matches, either from an index, by filtering or combining the positions of
+ * other steps, or by checking every image in the collection
+ */
+public abstract class ImageQueryPlan {
+
+	protected ImageManager images; // The collection the plan runs against
+	protected int rows; // Estimated number of images the step produces
+	protected int cost; // Estimated number of images the step has to visit
+
+	/*
+	 * Constructor for an ImageQueryPlan step
+	 */
+	ImageQueryPlan(ImageManager images, int rows, int cost) {
+		this.images = images;
+		this.rows = rows;
+		this.cost = cost;
+	}
+
+	/**
+	 * Run the step and return the positions of the matching images
+	 *
+	 * @return The positions of the matching images
+	 */
+	public abstract int[] execute();
+
+	/**
+	 * Check whether the positions produced by the step are in date order. If not,
+	 * they are in ascending position order
+	 *
+	 * @return True if the positions are in date order, false otherwise
+	 */
+	public boolean isDateOrdered() {
+		return false;
+	}
+
+	/**
+	 * Get the estimated number of images the step produces
+	 *
+	 * @return The estimated number of matching images
+	 */
+	public int getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * Get the estimated number of images the step has to visit
+	 *
+	 * @return The estimated cost of the step
+	 */
+	public int getCost() {
+		return this.cost;
+	}
+
+	/**
+	 * Return a string describing the step and the steps it is built from
+	 *
+	 * @return A string with one line per step
+	 */
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		describe(result, 0);
+		return result.toString();
+	}
+
+	/*
+	 * Append one line for this step, then the lines of any steps it uses
+	 */
+	void describe(StringBuilder result, int depth) {
+		for (int i = 0; i < depth; i++) {
+			result.append("  ");
+		}
+		result.append(getName()).append(" (rows ").append(this.rows).append(", cost ").append(this.cost)
+				.append(")\n");
+	}
+
+	/*
+	 * Get the one line name of the step
+	 */
+	abstract String getName();
+
+	/*
+	 * Looks up a single predicate in its index
+	 */
+	static class IndexLookup extends ImageQueryPlan {
+		private ImageQuery.IndexedQuery query;
+
+		IndexLookup(ImageManager images, ImageQuery.IndexedQuery query, int rows) {
+			super(images, rows, rows);
+			this.query = query;
+		}
+
+		public int[] execute() {
+			return query.lookup(images);
+		}
+
+		public boolean isDateOrdered() {
+			return query.isDateOrdered();
+		}
+
+		String getName() {
+			return "Index lookup: " + query;
+		}
+	}
+
+	/*
+	 * Checks every image in the collection against a query, splitting large
+	 * collections across all processors
+	 */
+	static class FullScan extends ImageQueryPlan {
+		private ImageQuery query;
+		private boolean isParallel;
+
+		FullScan(ImageManager images, ImageQuery query, int rows) {
+			super(images, rows, images.size());
+			this.query = query;
+			this.isParallel = images.isParallelScan();
+		}
+
+		public int[] execute() {
+			ImageColumns columns = images.getColumns();
+
+			if (isParallel) {
+				// Split the collection into one range per processor, or smaller
+				int threshold = Math.max(images.getParallelThreshold() / 8,
+						columns.size() / ForkJoinPool.getCommonPoolParallelism() + 1);
+				return ForkJoinPool.commonPool()
+						.invoke(new ImageScanTask(columns, query, 0, columns.size(), threshold));
+			}
+
+			int[] result = new int[columns.size()];
+			int size = 0;
+			for (int position = 0; position < result.length; position++) {
+				if (query.matches(columns, position)) {
+					result[size++] = position;
+				}
+			}
+			return Arrays.copyOf(result, size);
+		}
+
+		public boolean isDateOrdered() {
+			// The parallel scan merges its results in date order
+			return isParallel;
+		}
+
+		String getName() {
+			return (isParallel ? "Parallel full scan: " : "Full scan: ") + describeQuery(query);
+		}
+
+		/*
+		 * Write out a query tree on one line
+		 */
+		private static String describeQuery(ImageQuery query) {
+			ImageQuery[] children = query.getChildren();
+			if (children.length == 0) {
+				return query.toString();
+			}
+
+			String result = query + "(";
+			for (int i = 0; i < children.length; i++) {
+				result += (i > 0 ? ", " : "") + describeQuery(children[i]);
+			}
+			return result + ")";
+		}
+	}
+
+	/*
+	 * Runs the most selective step, then checks the images it produces against
+	 * the remaining queries
+	 */
+	static class Filter extends ImageQueryPlan {
+		private ImageQueryPlan driver;
+		private ImageQuery[] residuals;
+
+		Filter(ImageManager images, ImageQueryPlan driver, ImageQuery[] residuals, int rows) {
+			super(images, rows, driver.cost + driver.rows);
+			this.driver = driver;
+			this.residuals = residuals;
+		}
+
+		public int[] execute() {
+			ImageColumns columns = images.getColumns();
+			int[] candidates = driver.execute();
+			int size = 0;
+
+			// Keep the candidates matching every residual query, in their original order
+			for (int position : candidates) {
+				boolean isMatch = true;
+				for (int i = 0; i < residuals.length && isMatch; i++) {
+					isMatch = residuals[i].matches(columns, position);
+				}
+				if (isMatch) {
+					candidates[size++] = position;
+				}
+			}
+
+			return Arrays.copyOf(candidates, size);
+		}
+
+		public boolean isDateOrdered() {
+			return driver.isDateOrdered();
+		}
+
+		String getName() {
+			String result = "Filter:";
+			for (ImageQuery residual : residuals) {
+				result += " [" + FullScan.describeQuery(residual) + "]";
+			}
+			return result;
+		}
+
+		void describe(StringBuilder result, int depth) {
+			super.describe(result, depth);
+			driver.describe(result, depth + 1);
+		}
+	}
+
+	/*
+	 * Combines the positions produced by several steps
+	 */
+	static class Union extends ImageQueryPlan {
+		private ImageQueryPlan[] parts;
+
+		Union(ImageManager images, ImageQueryPlan[] parts, int rows, int cost) {
+			super(images, rows, cost);
+			this.parts = parts;
+		}
+
+		public int[] execute() {
+			ImageBitmap result = new ImageBitmap();
+			for (ImageQueryPlan part : parts) {
+				result = result.or(ImageBitmap.of(part.execute()));
+			}
+			return result.toPositions();
+		}
+
+		String getName() {
+			return "Union";
+		}
+
+		void describe(StringBuilder result, int depth) {
+			super.describe(result, depth);
+			for (ImageQueryPlan part : parts) {
+				part.describe(result, depth + 1);
+			}
+		}
+	}
+
+	/*
+	 * Produces every position that another step does not
+	 */
+	static class Complement extends ImageQueryPlan {
+		private ImageQueryPlan part;
+
+		Complement(ImageManager images, ImageQueryPlan part, int rows) {
+			super(images, rows, part.cost + images.size() / 64);
+			this.part = part;
+		}
+
+		public int[] execute() {
+			return ImageBitmap.all(images.size()).andNot(ImageBitmap.of(part.execute())).toPositions();
+		}
+
+		String getName() {
+			return "Complement";
+		}
+
+		void describe(StringBuilder result, int depth) {
+			super.describe(result, depth);
+			part.describe(result, depth + 1);
+		}
+	}
+}
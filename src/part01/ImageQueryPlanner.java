@@ -0,0 +1,150 @@
+package part01;
+
+import java.util.Arrays;
+
+/**
+ * The ImageQueryPlanner class turns an ImageQuery into an ImageQueryPlan for an
+ * ImageManager. The number of images each predicate matches is estimated from
+ * the indexes of the manager: the genre and date indexes give exact counts and
+ * the text indexes give the size of the rarest trigram's postings. An AND query
+ * starts from its most selective part and checks the images it produces
+ * against the rest, while anything that no index can narrow down is answered
+ * with a single pass over the collection
+ */
+public class ImageQueryPlanner {
+
+	// The collection whose indexes are used for planning
+	private ImageManager images;
+
+	/**
+	 * Constructor for the ImageQueryPlanner class
+	 *
+	 * @param images The ImageManager queries will be planned against
+	 */
+	public ImageQueryPlanner(ImageManager images) {
+		this.images = images;
+	}
+
+	/**
+	 * Build the cheapest plan found for a query
+	 *
+	 * @param query The query to plan
+	 * @return The ImageQueryPlan answering the query
+	 */
+	public ImageQueryPlan plan(ImageQuery query) {
+		int total = images.size();
+
+		if (query instanceof ImageQuery.AndQuery) {
+			return planAnd(query, total);
+		} else if (query instanceof ImageQuery.OrQuery) {
+			return planOr(query, total);
+		} else if (query instanceof ImageQuery.NotQuery) {
+			ImageQueryPlan part = plan(query.getChildren()[0]);
+			if (part instanceof ImageQueryPlan.FullScan) {
+				return new ImageQueryPlan.FullScan(images, query, total - part.rows);
+			}
+			return new ImageQueryPlan.Complement(images, part, total - part.rows);
+		}
+
+		// A single predicate uses its index if it has one
+		if (query instanceof ImageQuery.IndexedQuery) {
+			ImageQuery.IndexedQuery indexed = (ImageQuery.IndexedQuery) query;
+			int estimate = indexed.estimate(images);
+			if (estimate >= 0) {
+				return new ImageQueryPlan.IndexLookup(images, indexed, estimate);
+			}
+		}
+		return new ImageQueryPlan.FullScan(images, query, total);
+	}
+
+	/*
+	 * Plan an AND query by driving from its cheapest part
+	 */
+	private ImageQueryPlan planAnd(ImageQuery query, int total) {
+		ImageQuery[] children = query.getChildren();
+		if (children.length == 1) {
+			return plan(children[0]);
+		}
+
+		ImageQueryPlan[] parts = new ImageQueryPlan[children.length];
+		double selectivity = 1.0;
+		int driver = -1;
+		for (int i = 0; i < children.length; i++) {
+			parts[i] = plan(children[i]);
+
+			// Assume the parts are independent when combining their selectivities
+			selectivity *= selectivity(parts[i], total);
+
+			// The driver is the part that visits and produces the fewest images
+			if (!(parts[i] instanceof ImageQueryPlan.FullScan)
+					&& (driver < 0 || weight(parts[i]) < weight(parts[driver]))) {
+				driver = i;
+			}
+		}
+
+		int rows = (int) Math.ceil(total * selectivity);
+
+		// With nothing to narrow the search, check every predicate in one pass
+		if (driver < 0 || weight(parts[driver]) >= total) {
+			return new ImageQueryPlan.FullScan(images, query, rows);
+		}
+
+		// Check the remaining parts most selective first, so failures exit early
+		Integer[] order = new Integer[children.length - 1];
+		for (int i = 0, j = 0; i < children.length; i++) {
+			if (i != driver) {
+				order[j++] = i;
+			}
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(parts[a].rows, parts[b].rows));
+
+		ImageQuery[] residuals = new ImageQuery[order.length];
+		for (int i = 0; i < order.length; i++) {
+			residuals[i] = children[order[i]];
+		}
+
+		return new ImageQueryPlan.Filter(images, parts[driver], residuals, rows);
+	}
+
+	/*
+	 * Plan an OR query as a union of its parts, unless that would cost more than
+	 * checking every image
+	 */
+	private ImageQueryPlan planOr(ImageQuery query, int total) {
+		ImageQuery[] children = query.getChildren();
+		if (children.length == 1) {
+			return plan(children[0]);
+		}
+
+		ImageQueryPlan[] parts = new ImageQueryPlan[children.length];
+		double missed = 1.0;
+		long cost = 0;
+		boolean isScanned = children.length == 0;
+		for (int i = 0; i < children.length; i++) {
+			parts[i] = plan(children[i]);
+			missed *= 1.0 - selectivity(parts[i], total);
+			cost += weight(parts[i]);
+			isScanned |= parts[i] instanceof ImageQueryPlan.FullScan;
+		}
+
+		int rows = (int) Math.ceil(total * (1.0 - missed));
+		if (isScanned || cost >= total) {
+			return new ImageQueryPlan.FullScan(images, query, rows);
+		}
+		return new ImageQueryPlan.Union(images, parts, rows, (int) cost);
+	}
+
+	/*
+	 * Get the share of the collection a plan is expected to produce
+	 */
+	private static double selectivity(ImageQueryPlan plan, int total) {
+		return total == 0 ? 0.0 : Math.min(1.0, (double) plan.rows / total);
+	}
+
+	/*
+	 * Get the number of images a plan visits plus the number it produces
+	 */
+	private static long weight(ImageQueryPlan plan) {
+		return (long) plan.cost + plan.rows;
+	}
+}
@@ -1,6 +1,7 @@
 package part01;
 
 import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The ImageRecord class represents an image with various metadata
@@ -15,7 +16,7 @@ public class ImageRecord implements Comparable<ImageRecord> {
 	private LocalDate dateTaken; // Store the date the image was taken
 
 	// Class data
-	private static int nextId = 1; // Index storing the unique image ID
+	private static AtomicInteger nextId = new AtomicInteger(1); // Index storing the unique image ID
 
 	/**
 	 * Constructor for creating an ImageRecord with specified details
@@ -28,45 +29,107 @@ public class ImageRecord implements Comparable<ImageRecord> {
 	 * @throws Exception If there are errors during validation of the setters
 	 */
 	public ImageRecord(String title, String desc, String Genre, String date, String thumb) throws Exception {
-		String errors = "";
+		int errors = assign(title, desc, Genre, date, thumb);
+
+		// If there are errors, throw an exception; otherwise, assign the unique ID
+		if (errors != 0) {
+			throw new Exception(ImageValidation.describe(errors, title, desc, thumb, date, "\n"));
+		} else {
+			this.id = nextId.getAndIncrement();
+		}
+	}
+
+	/**
+	 * Create an ImageRecord with specified details, without throwing an exception
+	 * if any of them are invalid. An ID is only used up if the image is valid
+	 *
+	 * @param title The title of the image
+	 * @param desc  The description of the image
+	 * @param genre The genre of the image
+	 * @param date  The date the image was taken
+	 * @param thumb The thumbnail associated with the image
+	 * @return An ImageValidation holding the new ImageRecord, or the fields that
+	 *         were invalid
+	 */
+	public static ImageValidation create(String title, String desc, String genre, String date, String thumb) {
+		ImageRecord image = new ImageRecord();
+		int errors = image.assign(title, desc, genre, date, thumb);
+
+		if (errors != 0) {
+			return new ImageValidation(errors, title, desc, thumb, date);
+		}
+
+		image.id = nextId.getAndIncrement();
+		return new ImageValidation(image);
+	}
+
+	/**
+	 * Default constructor for ImageRecord
+	 */
+	public ImageRecord() {
+
+	}
+
+	/*
+	 * Constructor for an ImageRecord read back from storage, which keeps the ID it
+	 * was given when it was first created
+	 */
+	ImageRecord(int id, String title, String desc, ImageType genre, LocalDate date, String thumb) {
+		this.id = id;
+		this.title = title;
+		this.description = desc;
+		this.Genre = genre;
+		this.dateTaken = date;
+		this.thumbnail = thumb;
+	}
+
+	/*
+	 * Make sure IDs given to new ImageRecords are above an ID already in use, such
+	 * as one read back from storage
+	 */
+	static void reserveIdsUpTo(int id) {
+		nextId.accumulateAndGet(id + 1, Math::max);
+	}
+
+	/*
+	 * Reserve a block of consecutive IDs in one step, so a thread creating many
+	 * ImageRecords does not have to claim each ID separately
+	 */
+	static int reserveIds(int count) {
+		return nextId.getAndAdd(count);
+	}
+
+	/*
+	 * Validate and set each field, returning a bitmask of the ImageValidation
+	 * errors for the fields that were invalid
+	 */
+	private int assign(String title, String desc, String genre, String date, String thumb) {
+		int errors = 0;
 
 		// Validate and set the title
 		if (setTitle(title) != true) {
-			errors += "Bad title: " + title + "\n";
+			errors |= ImageValidation.BAD_TITLE;
 		}
 
 		// Validate and set the image description
 		if (setDescription(desc) != true) {
-			errors += "Bad image description: " + desc + "\n";
+			errors |= ImageValidation.BAD_DESCRIPTION;
 		}
 
 		// Set the genre based on the provided String parameter
-		setGenre(Genre);
+		setGenre(genre);
 
 		// Validate and set the thumbnail title
 		if (setThumbnail(thumb) != true) {
-			errors += "Bad thumbnail title: " + thumb + "\n";
+			errors |= ImageValidation.BAD_THUMBNAIL;
 		}
 
 		// Validate and set the date taken
 		if (setDateTaken(date) != true) {
-			errors += "Invalid date: " + date + "\n";
-		}
-
-		// If there are errors, throw an exception; otherwise, assign the unique ID
-		if (errors.length() > 0) {
-			throw new Exception(errors);
-		} else {
-			this.id = nextId;
-			nextId++;
+			errors |= ImageValidation.BAD_DATE;
 		}
-	}
-
-	/**
-	 * Default constructor for ImageRecord
-	 */
-	public ImageRecord() {
 
+		return errors;
 	}
 
 	/**
@@ -171,26 +234,7 @@ public class ImageRecord implements Comparable<ImageRecord> {
 	 * @return The ImageType enum corresponding to the provided string
 	 */
 	public ImageType setGenre(String genre) {
-		switch (genre.toUpperCase()) {
-		case "ASTRONOMY":
-			return this.Genre = ImageType.ASTRONOMY;
-		case "ARCHITECTURE":
-			return this.Genre = ImageType.ARCHITECTURE;
-		case "SPORT":
-			return this.Genre = ImageType.SPORT;
-		case "LANDSCAPE":
-			return this.Genre = ImageType.LANDSCAPE;
-		case "PORTRAIT":
-			return this.Genre = ImageType.PORTRAIT;
-		case "NATURE":
-			return this.Genre = ImageType.NATURE;
-		case "AERIAL":
-			return this.Genre = ImageType.AERIAL;
-		case "FOOD":
-			return this.Genre = ImageType.FOOD;
-		default:
-			return this.Genre = ImageType.OTHER;
-		}
+		return this.Genre = parseGenre(genre);
 	}
 
 	/**
@@ -215,27 +259,48 @@ public class ImageRecord implements Comparable<ImageRecord> {
 	 * @return True if the date is valid and set successfully, false otherwise
 	 */
 	public boolean setDateTaken(String date) {
-		if (date != null && date.length() == 10 && (date.charAt(4) == '-' && date.charAt(7) == '-')) {
-			// Split the date string into year, month, and day respectively
-			String[] splitDate = date.split("-");
-			try {
-				// Create a LocalDare object from the elements of splitDate
-				LocalDate properDate = LocalDate.of(Integer.parseInt(splitDate[0]), Integer.parseInt(splitDate[1]),
-						Integer.parseInt(splitDate[2]));
-
-				// If successful, set the dateTaken field
-				this.dateTaken = properDate;
-			} catch (Exception ex) {
-				// Otherwise return false
-				return false;
-			}
-			// Return true after setting the dateTaken field
+		int epochDay = ImageDates.parse(date);
+
+		// Only set the dateTaken field if the date is valid
+		if (ImageDates.isValid(epochDay)) {
+			this.dateTaken = LocalDate.ofEpochDay(epochDay);
 			return true;
 		}
-		// Return false if the date format is invalid
+
 		return false;
 	}
 
+	/*
+	 * Get the ImageType a genre string names, or OTHER if it is null or names none
+	 * of them
+	 */
+	static ImageType parseGenre(String genre) {
+		if (genre == null) {
+			return ImageType.OTHER;
+		}
+
+		switch (genre.toUpperCase()) {
+		case "ASTRONOMY":
+			return ImageType.ASTRONOMY;
+		case "ARCHITECTURE":
+			return ImageType.ARCHITECTURE;
+		case "SPORT":
+			return ImageType.SPORT;
+		case "LANDSCAPE":
+			return ImageType.LANDSCAPE;
+		case "PORTRAIT":
+			return ImageType.PORTRAIT;
+		case "NATURE":
+			return ImageType.NATURE;
+		case "AERIAL":
+			return ImageType.AERIAL;
+		case "FOOD":
+			return ImageType.FOOD;
+		default:
+			return ImageType.OTHER;
+		}
+	}
+
 	/**
 	 * Return a string containing detailed information about the image
 	 *
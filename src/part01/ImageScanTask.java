@@ -0,0 +1,107 @@
+package part01;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The ImageScanTask class checks a range of positions in an ImageColumns store
+ * against an ImageQuery using fork-join parallelism. Ranges are split in half
+ * until they are below a threshold, each small range is scanned on its own
+ * thread and sorted by date, and the results are merged back together in date
+ * order as the halves are joined
+ */
+public class ImageScanTask extends RecursiveTask<int[]> {
+
+	private static final long serialVersionUID = 1L;
+
+	private ImageColumns columns; // The column store being scanned
+	private ImageQuery query; // The query each image is checked against
+	private int from; // The first position of the range
+	private int to; // The position after the last one in the range
+	private int threshold; // The size below which a range is scanned directly
+
+	/**
+	 * Constructor for the ImageScanTask class
+	 *
+	 * @param columns   The ImageColumns store to scan
+	 * @param query     The ImageQuery each image is checked against
+	 * @param from      The first position of the range to scan
+	 * @param to        The position after the last one in the range to scan
+	 * @param threshold The size below which a range is scanned without splitting
+	 */
+	public ImageScanTask(ImageColumns columns, ImageQuery query, int from, int to, int threshold) {
+		this.columns = columns;
+		this.query = query;
+		this.from = from;
+		this.to = to;
+		this.threshold = Math.max(1, threshold);
+	}
+
+	/**
+	 * Scan the range, splitting it if it is too large
+	 *
+	 * @return The positions of the matching images in date order
+	 */
+	protected int[] compute() {
+		if (to - from <= threshold) {
+			return scan();
+		}
+
+		// Scan the first half on another thread while this one scans the second
+		int middle = (from + to) >>> 1;
+		ImageScanTask left = new ImageScanTask(columns, query, from, middle, threshold);
+		ImageScanTask right = new ImageScanTask(columns, query, middle, to, threshold);
+		left.fork();
+		int[] rightResult = right.compute();
+		int[] leftResult = left.join();
+
+		return merge(leftResult, rightResult);
+	}
+
+	/*
+	 * Check each position of the range, then sort the matches by date
+	 */
+	private int[] scan() {
+		long[] keys = new long[to - from];
+		int size = 0;
+		for (int position = from; position < to; position++) {
+			if (query.matches(columns, position)) {
+				keys[size++] = key(position);
+			}
+		}
+
+		// Sorting the packed keys orders the matches by date, then by position
+		Arrays.sort(keys, 0, size);
+
+		int[] result = new int[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = (int) keys[i];
+		}
+		return result;
+	}
+
+	/*
+	 * Merge two lists of positions that are each in date order. Positions on the
+	 * left come first on the same date, as they were added earlier
+	 */
+	private int[] merge(int[] left, int[] right) {
+		int[] result = new int[left.length + right.length];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < result.length; k++) {
+			if (j == right.length || (i < left.length && key(left[i]) <= key(right[j]))) {
+				result[k] = left[i++];
+			} else {
+				result[k] = right[j++];
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Pack the epoch day of an image above its position, so keys sort by date
+	 */
+	private long key(int position) {
+		return ((long) columns.getEpochDay(position) << 32) | position;
+	}
+}
@@ -0,0 +1,174 @@
+package part01;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The ImageStrings class stores one text field of every image as UTF-8 bytes
+ * packed end to end in a single array, with an array of offsets marking where
+ * each string starts. This replaces a String object per image with a few bytes
+ * per character, and lets substring checks run over the bytes directly
+ */
+public class ImageStrings {
+
+	// Largest length an array can be given on every JVM
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	private byte[] data; // Store the UTF-8 bytes of every string, end to end
+	private int length; // Number of bytes in use
+	private int[] offsets; // Store the start of each string, plus the end of the last
+	private int size; // Number of strings
+	private ImageBitmap nulls; // Store the positions whose string is null
+
+	/**
+	 * Constructor for the ImageStrings class
+	 */
+	public ImageStrings() {
+		this.data = new byte[256];
+		this.offsets = new int[17];
+		this.nulls = new ImageBitmap();
+	}
+
+	/**
+	 * Append a string, which takes the next position
+	 *
+	 * @param str The string to append, which may be null
+	 */
+	public void add(String str) {
+		byte[] bytes = str == null ? new byte[0] : str.getBytes(StandardCharsets.UTF_8);
+		append(bytes, 0, bytes.length, str == null);
+	}
+
+	/**
+	 * Append the string at a position of another ImageStrings, copying its bytes
+	 * without decoding them, which takes the next position
+	 *
+	 * @param other    The ImageStrings to copy the string from
+	 * @param position The position of the string in the other ImageStrings
+	 */
+	public void add(ImageStrings other, int position) {
+		int start = other.offsets[position];
+		append(other.data, start, other.offsets[position + 1] - start, other.nulls.contains(position));
+	}
+
+	/**
+	 * Get the string at a position
+	 *
+	 * @param position The position of the string
+	 * @return The decoded string, or null if a null string was added
+	 */
+	public String get(int position) {
+		if (this.nulls.contains(position)) {
+			return null;
+		}
+
+		int start = this.offsets[position];
+		return new String(this.data, start, this.offsets[position + 1] - start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Check whether the string at a position contains a sequence of UTF-8 bytes,
+	 * without decoding it
+	 *
+	 * @param position The position of the string
+	 * @param needle   The UTF-8 bytes of the substring to look for
+	 * @return True if the string contains the bytes, false otherwise
+	 */
+	public boolean contains(int position, byte[] needle) {
+		int start = this.offsets[position];
+		int last = this.offsets[position + 1] - needle.length;
+
+		// Check each place the needle could start
+		for (int i = start; i <= last; i++) {
+			int j = 0;
+			while (j < needle.length && this.data[i + j] == needle[j]) {
+				j++;
+			}
+			if (j == needle.length) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Get the number of strings
+	 *
+	 * @return The number of strings stored
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/*
+	 * Append the UTF-8 bytes of a string. Both arrays are grown before anything
+	 * is changed, so a string that does not fit leaves the column as it was
+	 */
+	private void append(byte[] bytes, int start, int count, boolean isNull) {
+		long length = (long) this.length + count;
+		if (length > this.data.length) {
+			this.data = Arrays.copyOf(this.data, capacity(this.data.length, length));
+		}
+		if (this.size + 2 > this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, capacity(this.offsets.length, this.size + 2L));
+		}
+
+		if (isNull) {
+			this.nulls.add(this.size);
+		}
+		System.arraycopy(bytes, start, this.data, this.length, count);
+		this.length += count;
+		this.size++;
+		this.offsets[this.size] = this.length;
+	}
+
+	/*
+	 * Get the length to grow an array to so it holds at least the number of
+	 * values needed, doubling it while that stays within the largest array
+	 */
+	private static int capacity(int current, long needed) {
+		if (needed > MAX_ARRAY_SIZE) {
+			throw new IllegalStateException("A text column cannot hold more than " + MAX_ARRAY_SIZE + " bytes or strings.");
+		}
+		return (int) Math.min(MAX_ARRAY_SIZE, Math.max(needed, (long) current << 1));
+	}
+
+	/**
+	 * Encode a string the same way the stored strings are encoded
+	 *
+	 * @param str The string to encode
+	 * @return The UTF-8 bytes of the string
+	 */
+	public static byte[] encode(String str) {
+		return str.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Write the strings to an index file
+	 */
+	void write(ImageIndexFile.Output out) throws IOException {
+		out.writeInt(this.size);
+		out.writeBytes(this.data, this.length);
+		out.writeInts(this.offsets, this.size + 1);
+		this.nulls.write(out);
+	}
+
+	/*
+	 * Read strings written by write
+	 */
+	static ImageStrings read(ImageIndexFile.Input in) throws IOException {
+		ImageStrings strings = new ImageStrings();
+		strings.size = in.readInt();
+		strings.data = in.readBytes(256);
+		strings.offsets = in.readInts(17);
+		strings.nulls = ImageBitmap.read(in);
+		if (strings.size < 0 || strings.size >= strings.offsets.length
+				|| strings.offsets[strings.size] > strings.data.length) {
+			throw new IOException("Damaged image index file.");
+		}
+		strings.length = strings.offsets[strings.size];
+		return strings;
+	}
+}
@@ -0,0 +1,420 @@
+package part01;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * The ImageTermIndex class is an inverted word index over one text field of the
+ * images in an ImageManager, for ranking images by how relevant their text is
+ * to a query. Text is split into words of letters and digits, and each word is
+ * mapped to the ascending positions of the images containing it alongside the
+ * number of times it appears in each. The number of words in each image's text
+ * is kept too, which is everything the BM25 relevance score needs.
+ *
+ * Ranked searches walk the postings of every query word together, scoring one
+ * image at a time, and keep only the best images in a bounded heap. Once the
+ * heap is full, the words too common to lift an image into it on their own are
+ * only looked up for the images the rarer words lead to, so the full set of
+ * matching images is never gathered or sorted
+ */
+public class ImageTermIndex {
+
+	// How quickly repeats of a word stop adding to its score
+	private static final double K1 = 1.2;
+
+	// How much a score is scaled down for text longer than average
+	private static final double B = 0.75;
+
+	// Marker stored in the slots array for a free table slot
+	private static final int EMPTY = -1;
+
+	// Margin kept when skipping images, so rounding cannot drop one that belongs
+	private static final double SLACK = 1e-9;
+
+	private double weight; // Factor the scores of this field are multiplied by
+
+	private int[] slots; // Store the postings row used by each table slot
+	private int used; // Number of postings rows in use
+
+	private String[] words; // Store the word of each postings row
+	private int[] hashes; // Store the hash of each postings row's word
+	private int[][] postings; // Store the ascending image positions for each word
+	private int[][] frequencies; // Store how often the word appears in each image
+	private int[] counts; // Store the number of positions in each postings row
+
+	private int[] lengths; // Store the number of words in each image's text
+	private int documents; // Number of images added, with or without text
+	private long totalLength; // Number of words in every image's text
+
+	/**
+	 * Constructor for the ImageTermIndex class
+	 *
+	 * @param weight The factor the scores of this field are multiplied by when
+	 *               ranked with other fields
+	 */
+	public ImageTermIndex(double weight) {
+		this.weight = weight;
+		this.slots = new int[1024];
+		Arrays.fill(this.slots, EMPTY);
+		this.words = new String[256];
+		this.hashes = new int[256];
+		this.postings = new int[256][];
+		this.frequencies = new int[256][];
+		this.counts = new int[256];
+		this.lengths = new int[1024];
+	}
+
+	/**
+	 * Add the text of an image to the index. Images must be added in ascending
+	 * position order
+	 *
+	 * @param text     The folded text to index, which may be null
+	 * @param position The position of the image in the collection
+	 */
+	public void add(String text, int position) {
+		if (position >= this.lengths.length) {
+			this.lengths = Arrays.copyOf(this.lengths, Math.max(position + 1, this.lengths.length << 1));
+		}
+		this.documents = Math.max(this.documents, position + 1);
+
+		if (text == null) {
+			return;
+		}
+
+		// Split the text into words in place, so a word already indexed allocates
+		// nothing
+		int length = 0;
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (inWord && start < 0) {
+				start = i;
+			} else if (!inWord && start >= 0) {
+				addWord(rowFor(text, start, i, true), position);
+				length++;
+				start = -1;
+			}
+		}
+
+		this.lengths[position] = length;
+		this.totalLength += length;
+	}
+
+	/**
+	 * Find the images most relevant to a query across one or more fields. Each
+	 * image's score is the sum over the fields of its BM25 score for the words of
+	 * the query, multiplied by the weight of the field
+	 *
+	 * @param query  The folded words to search for
+	 * @param limit  The largest number of positions to return
+	 * @param fields The indexes of the fields to rank, which must cover the same
+	 *               images
+	 * @return The positions of the most relevant images, highest score first,
+	 *         with images of the same score in ascending position order
+	 */
+	public static int[] top(String query, int limit, ImageTermIndex... fields) {
+		if (query == null || limit <= 0) {
+			return new int[0];
+		}
+
+		// A word repeated in the query counts once
+		ArrayList<String> distinct = new ArrayList<String>();
+		for (String word : words(query)) {
+			if (!distinct.contains(word)) {
+				distinct.add(word);
+			}
+		}
+
+		// Open a cursor on the postings of each query word in each field, with the
+		// most the word can add to any image's score
+		int cursorCount = 0;
+		ImageTermIndex[] indexes = new ImageTermIndex[distinct.size() * fields.length];
+		int[] rows = new int[indexes.length];
+		double[] idfs = new double[indexes.length];
+		double[] bounds = new double[indexes.length];
+		for (ImageTermIndex field : fields) {
+			for (String word : distinct) {
+				int row = field.rowFor(word, 0, word.length(), false);
+				if (row != EMPTY) {
+					indexes[cursorCount] = field;
+					rows[cursorCount] = row;
+					idfs[cursorCount] = field.weight * field.idf(field.counts[row]);
+					bounds[cursorCount] = idfs[cursorCount] * (K1 + 1);
+					cursorCount++;
+				}
+			}
+		}
+		int[] at = new int[cursorCount];
+
+		// Order the cursors from the least they can add to the most, then sum the
+		// bounds so the cursors below each one are known to add at most its sum
+		int[] order = new int[cursorCount];
+		for (int i = 0; i < cursorCount; i++) {
+			int cursor = i;
+			int j = i - 1;
+			while (j >= 0 && bounds[order[j]] > bounds[cursor]) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = cursor;
+		}
+		double[] below = new double[cursorCount];
+		for (int i = 0; i < cursorCount; i++) {
+			below[i] = (i > 0 ? below[i - 1] : 0) + bounds[order[i]];
+		}
+
+		// The best images found so far, worst first. Each entry packs the score
+		// above the position, inverted so later positions are dropped before
+		// earlier ones with the same score
+		PriorityQueue<Long> best = new PriorityQueue<Long>();
+		double threshold = 0;
+
+		// Only the cursors from this one up can lead to an image good enough to keep
+		int essential = 0;
+
+		while (essential < cursorCount) {
+			// Score the lowest position an essential cursor is on
+			int position = Integer.MAX_VALUE;
+			for (int i = essential; i < cursorCount; i++) {
+				int cursor = order[i];
+				if (at[cursor] < indexes[cursor].counts[rows[cursor]]) {
+					position = Math.min(position, indexes[cursor].postings[rows[cursor]][at[cursor]]);
+				}
+			}
+			if (position == Integer.MAX_VALUE) {
+				break;
+			}
+
+			double score = 0;
+			for (int i = essential; i < cursorCount; i++) {
+				int cursor = order[i];
+				if (at[cursor] < indexes[cursor].counts[rows[cursor]]
+						&& indexes[cursor].postings[rows[cursor]][at[cursor]] == position) {
+					score += idfs[cursor] * indexes[cursor].saturate(rows[cursor], at[cursor]++, position);
+				}
+			}
+
+			// Then look the image up in the other cursors while it could still be kept
+			for (int i = essential - 1; i >= 0 && score + below[i] * (1 + SLACK) > threshold; i--) {
+				int cursor = order[i];
+				ImageTermIndex index = indexes[cursor];
+				int row = rows[cursor];
+				int found = Arrays.binarySearch(index.postings[row], at[cursor], index.counts[row], position);
+				at[cursor] = found >= 0 ? found : -found - 1;
+				if (found >= 0) {
+					score += idfs[cursor] * index.saturate(row, at[cursor]++, position);
+				}
+			}
+
+			long entry = ((long) Float.floatToIntBits((float) score) << 32) | (Integer.MAX_VALUE - position);
+			if (best.size() < limit) {
+				best.add(entry);
+			} else if (entry > best.peek()) {
+				best.poll();
+				best.add(entry);
+			} else {
+				continue;
+			}
+
+			// Once the heap is full, an image has to beat the worst one kept, which
+			// the cursors adding the least can no longer do on their own
+			if (best.size() == limit) {
+				threshold = Float.intBitsToFloat((int) (best.peek() >>> 32));
+				while (essential < cursorCount && below[essential] * (1 + SLACK) <= threshold) {
+					essential++;
+				}
+			}
+		}
+
+		// Empty the heap from the worst image to the best
+		int[] result = new int[best.size()];
+		for (int i = result.length - 1; i >= 0; i--) {
+			result[i] = Integer.MAX_VALUE - (int) (best.poll() & 0xFFFFFFFFL);
+		}
+		return result;
+	}
+
+	/**
+	 * Split folded text into its words, which are runs of letters and digits
+	 *
+	 * @param text The folded text to split
+	 * @return The words of the text in the order they appear
+	 */
+	public static ArrayList<String> words(String text) {
+		ArrayList<String> result = new ArrayList<String>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (inWord && start < 0) {
+				start = i;
+			} else if (!inWord && start >= 0) {
+				result.add(text.substring(start, i));
+				start = -1;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Get the inverse document frequency of a word held by some images, which is
+	 * larger the rarer the word is
+	 */
+	private double idf(int count) {
+		return Math.log(1 + (this.documents - count + 0.5) / (count + 0.5));
+	}
+
+	/*
+	 * Get the part of a word's score that grows with how often it appears in an
+	 * image's text, scaled down for text longer than average
+	 */
+	private double saturate(int row, int index, int position) {
+		int frequency = this.frequencies[row][index];
+		double average = (double) this.totalLength / this.documents;
+		double norm = K1 * (1 - B + B * this.lengths[position] / average);
+		return frequency * (K1 + 1) / (frequency + norm);
+	}
+
+	/*
+	 * Count an occurrence of a word in the text of an image
+	 */
+	private void addWord(int row, int position) {
+		// A word repeated within the same text adds to the same posting
+		int count = this.counts[row];
+		if (count > 0 && this.postings[row][count - 1] == position) {
+			this.frequencies[row][count - 1]++;
+			return;
+		}
+
+		if (count == this.postings[row].length) {
+			this.postings[row] = Arrays.copyOf(this.postings[row], count << 1);
+			this.frequencies[row] = Arrays.copyOf(this.frequencies[row], count << 1);
+		}
+		this.postings[row][count] = position;
+		this.frequencies[row][count] = 1;
+		this.counts[row] = count + 1;
+	}
+
+	/*
+	 * Find the postings row for the word between two indexes of a string,
+	 * optionally creating it
+	 */
+	private int rowFor(String text, int start, int end, boolean create) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + text.charAt(i);
+		}
+
+		int mask = this.slots.length - 1;
+		int slot = mix(hash) & mask;
+		int length = end - start;
+		while (this.slots[slot] != EMPTY) {
+			int row = this.slots[slot];
+			if (this.hashes[row] == hash && this.words[row].length() == length
+					&& this.words[row].regionMatches(0, text, start, length)) {
+				return row;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (!create) {
+			return EMPTY;
+		}
+
+		// Claim a new postings row for the word
+		int row = this.used;
+		if (row == this.postings.length) {
+			this.words = Arrays.copyOf(this.words, row << 1);
+			this.hashes = Arrays.copyOf(this.hashes, row << 1);
+			this.postings = Arrays.copyOf(this.postings, row << 1);
+			this.frequencies = Arrays.copyOf(this.frequencies, row << 1);
+			this.counts = Arrays.copyOf(this.counts, row << 1);
+		}
+		this.words[row] = text.substring(start, end);
+		this.hashes[row] = hash;
+		// Most words are only in a few images, such as a number in a title
+		this.postings[row] = new int[1];
+		this.frequencies[row] = new int[1];
+		this.slots[slot] = row;
+		this.used++;
+
+		// Keep the table at most half full
+		if (this.used * 2 > this.slots.length) {
+			resize();
+		}
+
+		return row;
+	}
+
+	/*
+	 * Double the table and rehash every word into it
+	 */
+	private void resize() {
+		this.slots = new int[this.slots.length << 1];
+		Arrays.fill(this.slots, EMPTY);
+
+		int mask = this.slots.length - 1;
+		for (int row = 0; row < this.used; row++) {
+			int slot = mix(this.hashes[row]) & mask;
+			while (this.slots[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			this.slots[slot] = row;
+		}
+	}
+
+	/*
+	 * Spread the bits of a word's hash across an int
+	 */
+	private static int mix(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/*
+	 * Write the index to an index file
+	 */
+	void write(ImageIndexFile.Output out) throws IOException {
+		out.writeLong(Double.doubleToLongBits(this.weight));
+		out.writeInt(this.used);
+		out.writeInt(this.documents);
+		out.writeLong(this.totalLength);
+		out.writeInts(this.slots, this.slots.length);
+		out.writeStrings(this.words, this.used);
+		out.writeInts(this.hashes, this.used);
+		out.writeInts(this.counts, this.used);
+		out.writeRows(this.postings, this.counts, this.used);
+		out.writeRows(this.frequencies, this.counts, this.used);
+		out.writeInts(this.lengths, this.documents);
+	}
+
+	/*
+	 * Read an index written by write
+	 */
+	static ImageTermIndex read(ImageIndexFile.Input in) throws IOException {
+		ImageTermIndex index = new ImageTermIndex(Double.longBitsToDouble(in.readLong()));
+		index.used = in.readInt();
+		index.documents = in.readInt();
+		index.totalLength = in.readLong();
+		index.slots = in.readInts(0);
+		index.words = in.readStrings(256);
+		index.hashes = in.readInts(256);
+		index.counts = in.readInts(256);
+		index.postings = in.readRows(256);
+		index.frequencies = in.readRows(256);
+		index.lengths = in.readInts(1024);
+
+		// The table must be a power of two long and at most half full, and every
+		// array of the rows must be the same length
+		int capacity = index.slots.length;
+		int rows = index.words.length;
+		if (capacity < 1024 || Integer.bitCount(capacity) != 1 || index.used < 0 || index.used * 2 > capacity
+				|| (index.used > 256 && index.used != rows) || index.hashes.length != rows
+				|| index.counts.length != rows || index.postings.length != rows || index.frequencies.length != rows
+				|| index.documents < 0 || index.documents > index.lengths.length) {
+			throw new IOException("Damaged image index file.");
+		}
+		return index;
+	}
+}
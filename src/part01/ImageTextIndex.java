@@ -0,0 +1,277 @@
+package part01;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The ImageTextIndex class is an inverted trigram index over one text field of
+ * the images in an ImageManager. Every run of three characters in the text is
+ * mapped to the ascending positions of the images containing it, so a
+ * substring search only has to visit the images that contain every trigram of
+ * the query
+ */
+public class ImageTextIndex {
+
+	// Length of the character runs that are indexed
+	public static final int GRAM_LENGTH = 3;
+
+	// Marker stored in the slots array for a free table slot
+	private static final int EMPTY = -1;
+
+	// Once a candidate list is this short it is cheaper to verify it directly
+	// than to keep intersecting posting lists
+	private static final int VERIFY_THRESHOLD = 32;
+
+	private long[] grams; // Store the packed trigram held in each table slot
+	private int[] slots; // Store the postings row used by each table slot
+	private int used; // Number of table slots in use
+
+	private int[][] postings; // Store the ascending image positions for each trigram
+	private int[] counts; // Store the number of positions in each postings row
+
+	/**
+	 * Constructor for the ImageTextIndex class
+	 */
+	public ImageTextIndex() {
+		this.grams = new long[1024];
+		this.slots = new int[1024];
+		Arrays.fill(this.slots, EMPTY);
+		this.postings = new int[256][];
+		this.counts = new int[256];
+	}
+
+	/**
+	 * Add the text of an image to the index. Images must be added in ascending
+	 * position order
+	 *
+	 * @param text     The text to index
+	 * @param position The position of the image in the collection
+	 */
+	public void add(String text, int position) {
+		if (text == null) {
+			return;
+		}
+
+		for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+			int row = rowFor(pack(text, i), true);
+
+			// Skip trigrams repeated within the same text
+			int count = this.counts[row];
+			if (count > 0 && this.postings[row][count - 1] == position) {
+				continue;
+			}
+
+			if (count == this.postings[row].length) {
+				this.postings[row] = Arrays.copyOf(this.postings[row], count << 1);
+			}
+			this.postings[row][count] = position;
+			this.counts[row] = count + 1;
+		}
+	}
+
+	/**
+	 * Find the positions of the images whose text may contain the query. Every
+	 * image that does contain it is returned, but the caller must still check
+	 * each candidate since the trigrams may appear apart from each other
+	 *
+	 * @param query The substring being searched for
+	 * @return The ascending candidate positions, or null if the query is too short
+	 *         to be answered by the index
+	 */
+	public int[] candidates(String query) {
+		if (query == null || query.length() < GRAM_LENGTH) {
+			return null;
+		}
+
+		// Gather the postings row for each trigram of the query
+		int gramCount = query.length() - GRAM_LENGTH + 1;
+		int[] rows = new int[gramCount];
+		for (int i = 0; i < gramCount; i++) {
+			int row = rowFor(pack(query, i), false);
+			if (row == EMPTY) {
+				// A trigram that never occurs means nothing can match
+				return new int[0];
+			}
+			rows[i] = row;
+		}
+
+		// Intersect starting with the rarest trigram so the candidate list is as
+		// short as possible from the start
+		sortByCount(rows);
+		int[] result = Arrays.copyOf(this.postings[rows[0]], this.counts[rows[0]]);
+		int size = result.length;
+
+		for (int i = 1; i < rows.length && size > VERIFY_THRESHOLD; i++) {
+			if (rows[i] != rows[i - 1]) {
+				size = intersect(result, size, this.postings[rows[i]], this.counts[rows[i]]);
+			}
+		}
+
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Get the number of images containing a trigram of the query. This is an
+	 * upper bound on the number of images the query can match
+	 *
+	 * @param query The substring being searched for
+	 * @return The size of the rarest trigram's postings, or -1 if the query is too
+	 *         short to be estimated by the index
+	 */
+	public int estimate(String query) {
+		if (query == null || query.length() < GRAM_LENGTH) {
+			return -1;
+		}
+
+		int smallest = Integer.MAX_VALUE;
+		for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+			int row = rowFor(pack(query, i), false);
+			if (row == EMPTY) {
+				return 0;
+			}
+			smallest = Math.min(smallest, this.counts[row]);
+		}
+
+		return smallest;
+	}
+
+	/*
+	 * Keep only the positions of the first list that also appear in the second,
+	 * returning the new size of the first list
+	 */
+	private static int intersect(int[] a, int aSize, int[] b, int bSize) {
+		int size = 0;
+		int j = 0;
+		for (int i = 0; i < aSize && j < bSize; i++) {
+			while (j < bSize && b[j] < a[i]) {
+				j++;
+			}
+			if (j < bSize && b[j] == a[i]) {
+				a[size++] = a[i];
+			}
+		}
+		return size;
+	}
+
+	/*
+	 * Sort postings rows from the fewest positions to the most by insertion, as
+	 * queries only have a handful of trigrams
+	 */
+	private void sortByCount(int[] rows) {
+		for (int i = 1; i < rows.length; i++) {
+			int row = rows[i];
+			int j = i - 1;
+			while (j >= 0 && this.counts[rows[j]] > this.counts[row]) {
+				rows[j + 1] = rows[j];
+				j--;
+			}
+			rows[j + 1] = row;
+		}
+	}
+
+	/*
+	 * Find the postings row for a trigram, optionally creating it
+	 */
+	private int rowFor(long gram, boolean create) {
+		int mask = this.grams.length - 1;
+		int slot = mix(gram) & mask;
+
+		while (this.slots[slot] != EMPTY) {
+			if (this.grams[slot] == gram) {
+				return this.slots[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (!create) {
+			return EMPTY;
+		}
+
+		// Claim a new postings row for the trigram
+		int row = this.used;
+		if (row == this.postings.length) {
+			this.postings = Arrays.copyOf(this.postings, row << 1);
+			this.counts = Arrays.copyOf(this.counts, row << 1);
+		}
+		this.postings[row] = new int[4];
+		this.grams[slot] = gram;
+		this.slots[slot] = row;
+		this.used++;
+
+		// Keep the table at most half full
+		if (this.used * 2 > this.grams.length) {
+			resize();
+		}
+
+		return row;
+	}
+
+	/*
+	 * Double the table and rehash every trigram into it
+	 */
+	private void resize() {
+		long[] oldGrams = this.grams;
+		int[] oldSlots = this.slots;
+		this.grams = new long[oldGrams.length << 1];
+		this.slots = new int[oldSlots.length << 1];
+		Arrays.fill(this.slots, EMPTY);
+
+		int mask = this.grams.length - 1;
+		for (int i = 0; i < oldGrams.length; i++) {
+			if (oldSlots[i] != EMPTY) {
+				int slot = mix(oldGrams[i]) & mask;
+				while (this.slots[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				this.grams[slot] = oldGrams[i];
+				this.slots[slot] = oldSlots[i];
+			}
+		}
+	}
+
+	/*
+	 * Pack the three characters starting at the given index into one long
+	 */
+	private static long pack(String text, int index) {
+		return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16) | text.charAt(index + 2);
+	}
+
+	/*
+	 * Spread the bits of a packed trigram across an int
+	 */
+	private static int mix(long gram) {
+		long h = gram * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/*
+	 * Write the index to an index file
+	 */
+	void write(ImageIndexFile.Output out) throws IOException {
+		out.writeInt(this.used);
+		out.writeLongs(this.grams, this.grams.length);
+		out.writeInts(this.slots, this.slots.length);
+		out.writeInts(this.counts, this.used);
+		out.writeRows(this.postings, this.counts, this.used);
+	}
+
+	/*
+	 * Read an index written by write
+	 */
+	static ImageTextIndex read(ImageIndexFile.Input in) throws IOException {
+		ImageTextIndex index = new ImageTextIndex();
+		index.used = in.readInt();
+		index.grams = in.readLongs(0);
+		index.slots = in.readInts(0);
+		index.counts = in.readInts(256);
+		index.postings = in.readRows(256);
+
+		// The table must be a power of two long and at most half full
+		int capacity = index.grams.length;
+		if (capacity < 1024 || Integer.bitCount(capacity) != 1 || index.slots.length != capacity
+				|| index.used < 0 || index.used * 2 > capacity || index.postings.length != index.counts.length) {
+			throw new IOException("Damaged image index file.");
+		}
+		return index;
+	}
+}
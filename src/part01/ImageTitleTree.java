@@ -0,0 +1,516 @@
+package part01;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * The ImageTitleTree class is a BK-tree over the folded titles of the images
+ * in an ImageManager, for finding the titles closest to a misspelt one. Each
+ * node holds one distinct title and the positions of the images with it, and
+ * its children are keyed by their Levenshtein distance from it. As the
+ * distance is a metric, a search within a radius of the query only has to
+ * visit the children whose key is within the radius of the node's own
+ * distance from the query, which skips most of the tree when the radius is
+ * small.
+ *
+ * The nodes are kept in parallel arrays, with each node's children linked
+ * through their first child and next sibling. A title already in the tree is
+ * found through an open addressing table of node indexes rather than by
+ * walking down to it
+ */
+public class ImageTitleTree {
+
+	// Marker for a missing child or sibling
+	private static final int NONE = -1;
+
+	// Largest share of the node table that may be in use before it is doubled
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private String[] titles; // Store the folded title of each node
+	private int[][] positions; // Store the ascending image positions of each node
+	private int[] counts; // Store the number of positions in each node
+	private int[] distances; // Store the distance of each node from its parent
+	private int[] firstChild; // Store the first child of each node
+	private int[] nextSibling; // Store the next child of each node's parent
+	private int size; // Number of nodes
+	private int longest; // Length of the longest title
+	private int[] slots; // Store the node holding each title by its hash, or null until needed
+
+	// Measures distances from the title being added, as adds are never concurrent
+	private Distance adding;
+
+	/**
+	 * Constructor for the ImageTitleTree class
+	 */
+	public ImageTitleTree() {
+		this.titles = new String[16];
+		this.positions = new int[16][];
+		this.counts = new int[16];
+		this.distances = new int[16];
+		this.firstChild = new int[16];
+		this.nextSibling = new int[16];
+		this.slots = newSlots(16);
+		this.adding = new Distance();
+	}
+
+	/**
+	 * Add the title of an image to the tree. Images must be added in ascending
+	 * position order
+	 *
+	 * @param title    The folded title of the image
+	 * @param position The position of the image in the collection
+	 */
+	public void add(String title, int position) {
+		if (title == null) {
+			return;
+		}
+
+		// The table is not saved with the tree, so a tree read back rebuilds it here
+		if (this.slots == null) {
+			rehash(this.titles.length);
+		}
+
+		int existing = findNode(title);
+		if (existing != NONE) {
+			addPosition(existing, position);
+			return;
+		}
+
+		if (this.size == 0) {
+			newNode(title, position, 0);
+			return;
+		}
+
+		// Walk down the children at the title's distance from each node
+		this.adding.setPattern(title);
+		int node = 0;
+		while (true) {
+			int distance = this.adding.to(this.titles[node]);
+
+			int child = this.firstChild[node];
+			while (child != NONE && this.distances[child] != distance) {
+				child = this.nextSibling[child];
+			}
+
+			if (child == NONE) {
+				int added = newNode(title, position, distance);
+				this.nextSibling[added] = this.firstChild[node];
+				this.firstChild[node] = added;
+				return;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * Find the images whose titles are closest to a query
+	 *
+	 * @param query       The folded title to search for
+	 * @param maxDistance The largest number of single character insertions,
+	 *                    deletions and substitutions a title may differ by
+	 * @param limit       The largest number of positions to return
+	 * @return The positions of the closest images, nearest first, with images
+	 *         at the same distance in ascending position order
+	 */
+	public int[] nearest(String query, int maxDistance, int limit) {
+		if (query == null || this.size == 0 || limit <= 0 || maxDistance < 0) {
+			return new int[0];
+		}
+
+		// Each search measures its own distances, so searches can run at the same time
+		Distance measure = new Distance();
+		measure.setPattern(query);
+
+		// No two strings are further apart than the length of the longer one
+		int radius = Math.min(maxDistance, Math.max(this.longest, query.length()));
+
+		// Nodes found so far with their distance packed above them, worst first,
+		// and the number of positions they hold at each distance. Only the nearest
+		// distances needed to hold the limit of positions are kept
+		PriorityQueue<Long> found = new PriorityQueue<Long>((a, b) -> Long.compare(b, a));
+		int[] heldAt = new int[radius + 1];
+		int held = 0;
+
+		// Nodes still to visit, with the least distance they can be at packed above
+		long[] stack = new long[16];
+		int top = 0;
+		stack[top++] = 0;
+
+		while (top > 0) {
+			long entry = stack[--top];
+			if ((int) (entry >>> 32) > radius) {
+				continue;
+			}
+
+			int node = (int) entry;
+			int distance = measure.to(this.titles[node]);
+
+			if (distance <= radius) {
+				found.add(((long) distance << 32) | node);
+				heldAt[distance] += this.counts[node];
+				held += this.counts[node];
+
+				// Drop every node at the worst distance while the nearer ones still hold
+				// enough positions. Nodes at the same distance are kept together, so the
+				// lowest positions among them can be chosen at the end
+				int worst = (int) (found.peek() >>> 32);
+				while (held - heldAt[worst] >= limit) {
+					while ((int) (found.peek() >>> 32) == worst) {
+						found.poll();
+					}
+					held -= heldAt[worst];
+					heldAt[worst] = 0;
+					worst = (int) (found.peek() >>> 32);
+				}
+
+				// Then only look for titles at least as close as the worst one kept
+				if (held >= limit) {
+					radius = worst;
+				}
+			}
+
+			// Only children keyed within the radius of this distance can be close enough
+			for (int child = this.firstChild[node]; child != NONE; child = this.nextSibling[child]) {
+				int bound = Math.abs(this.distances[child] - distance);
+				if (bound <= radius) {
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, top << 1);
+					}
+					stack[top++] = ((long) bound << 32) | child;
+				}
+			}
+		}
+
+		// Order the positions of the nodes kept by distance, then by position
+		long[] keys = new long[held];
+		int size = 0;
+		for (long entry : found) {
+			int node = (int) entry;
+			for (int i = 0; i < this.counts[node]; i++) {
+				keys[size++] = (entry & 0xFFFFFFFF00000000L) | this.positions[node][i];
+			}
+		}
+		Arrays.sort(keys);
+
+		int[] result = new int[Math.min(limit, size)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = (int) keys[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Get the number of distinct titles in the tree
+	 *
+	 * @return The number of nodes
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/*
+	 * Create a node holding one position, returning its index
+	 */
+	private int newNode(String title, int position, int distance) {
+		if (this.size == this.titles.length) {
+			int capacity = this.size << 1;
+			this.titles = Arrays.copyOf(this.titles, capacity);
+			this.positions = Arrays.copyOf(this.positions, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
+			this.distances = Arrays.copyOf(this.distances, capacity);
+			this.firstChild = Arrays.copyOf(this.firstChild, capacity);
+			this.nextSibling = Arrays.copyOf(this.nextSibling, capacity);
+		}
+
+		int node = this.size++;
+		this.titles[node] = title;
+		this.positions[node] = new int[] { position };
+		this.counts[node] = 1;
+		this.distances[node] = distance;
+		this.firstChild[node] = NONE;
+		this.nextSibling[node] = NONE;
+		indexNode(node);
+		this.longest = Math.max(this.longest, title.length());
+		return node;
+	}
+
+	/*
+	 * Find the node holding a title, or NONE if no node does
+	 */
+	private int findNode(String title) {
+		int mask = this.slots.length - 1;
+		int slot = mix(title.hashCode()) & mask;
+
+		// Probe linearly until the title or a free slot is found
+		while (this.slots[slot] != NONE) {
+			if (this.titles[this.slots[slot]].equals(title)) {
+				return this.slots[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NONE;
+	}
+
+	/*
+	 * Record a new node in the table, doubling the table first if it is too full
+	 */
+	private void indexNode(int node) {
+		if (this.size > this.slots.length * LOAD_FACTOR) {
+			rehash(this.slots.length << 1);
+		} else {
+			place(node);
+		}
+	}
+
+	/*
+	 * Rebuild the table with at least a number of slots, and enough for every
+	 * node
+	 */
+	private void rehash(int minimum) {
+		int capacity = 16;
+		while (capacity < minimum || this.size > capacity * LOAD_FACTOR) {
+			capacity <<= 1;
+		}
+
+		this.slots = newSlots(capacity);
+		for (int node = 0; node < this.size; node++) {
+			place(node);
+		}
+	}
+
+	/*
+	 * Put a node in the first free slot from the hash of its title
+	 */
+	private void place(int node) {
+		int mask = this.slots.length - 1;
+		int slot = mix(this.titles[node].hashCode()) & mask;
+		while (this.slots[slot] != NONE) {
+			slot = (slot + 1) & mask;
+		}
+		this.slots[slot] = node;
+	}
+
+	/*
+	 * Create an empty table of a power of two capacity
+	 */
+	private static int[] newSlots(int capacity) {
+		int[] slots = new int[capacity];
+		Arrays.fill(slots, NONE);
+		return slots;
+	}
+
+	/*
+	 * Spread the bits of a hash code so similar titles do not cluster in the table
+	 */
+	private static int mix(int code) {
+		int h = code * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/*
+	 * Add another image with the same title to a node
+	 */
+	private void addPosition(int node, int position) {
+		int count = this.counts[node];
+		if (count == this.positions[node].length) {
+			this.positions[node] = Arrays.copyOf(this.positions[node], count << 1);
+		}
+		this.positions[node][count] = position;
+		this.counts[node] = count + 1;
+	}
+
+	/*
+	 * Write the tree to an index file
+	 */
+	void write(ImageIndexFile.Output out) throws IOException {
+		out.writeInt(this.size);
+		out.writeInt(this.longest);
+		out.writeStrings(this.titles, this.size);
+		out.writeInts(this.counts, this.size);
+		out.writeRows(this.positions, this.counts, this.size);
+		out.writeInts(this.distances, this.size);
+		out.writeInts(this.firstChild, this.size);
+		out.writeInts(this.nextSibling, this.size);
+	}
+
+	/*
+	 * Read a tree written by write. The table of titles to nodes is left to be
+	 * rebuilt when a title is next added
+	 */
+	static ImageTitleTree read(ImageIndexFile.Input in) throws IOException {
+		ImageTitleTree tree = new ImageTitleTree();
+		tree.size = in.readInt();
+		tree.longest = in.readInt();
+		tree.titles = in.readStrings(16);
+		tree.counts = in.readInts(16);
+		tree.positions = in.readRows(16);
+		tree.distances = in.readInts(16);
+		tree.firstChild = in.readInts(16);
+		tree.nextSibling = in.readInts(16);
+		tree.slots = null;
+
+		// Every array of the nodes must be the same length
+		int capacity = tree.titles.length;
+		if (tree.size < 0 || (tree.size > 16 && tree.size != capacity) || tree.counts.length != capacity
+				|| tree.positions.length != capacity || tree.distances.length != capacity
+				|| tree.firstChild.length != capacity || tree.nextSibling.length != capacity) {
+			throw new IOException("Damaged image index file.");
+		}
+		return tree;
+	}
+
+	/*
+	 * Measures the Levenshtein distance from one string, the pattern, to others.
+	 * A pattern of up to 64 characters uses the bit-parallel algorithm of Myers
+	 * as extended by Hyyro, which works out a whole column of the distance table
+	 * with a few operations on the bitmasks of where each character appears in
+	 * the pattern. Longer patterns fill in the table a row at a time
+	 */
+	private static final class Distance {
+		private String pattern; // The string distances are measured from
+		private long[] ascii = new long[128]; // Store the mask of each ASCII character
+		private char[] others = new char[8]; // Store the other characters of the pattern
+		private long[] otherMasks = new long[8]; // Store the mask of each other character
+		private int otherCount; // Number of other characters
+
+		// Rows of the distance table for patterns too long for a bitmask
+		private int[] previous = new int[16];
+		private int[] current = new int[16];
+
+		/*
+		 * Set the string distances are measured from, working out the bitmask of
+		 * where each of its characters appears
+		 */
+		private void setPattern(String pattern) {
+			// Clear the masks of the previous pattern rather than the whole table
+			if (this.pattern != null && this.pattern.length() <= Long.SIZE) {
+				for (int i = 0; i < this.pattern.length(); i++) {
+					char c = this.pattern.charAt(i);
+					if (c < 128) {
+						this.ascii[c] = 0;
+					}
+				}
+			}
+			this.otherCount = 0;
+			this.pattern = pattern;
+
+			if (pattern.length() > Long.SIZE) {
+				return;
+			}
+
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				if (c < 128) {
+					this.ascii[c] |= 1L << i;
+					continue;
+				}
+
+				int j = 0;
+				while (j < this.otherCount && this.others[j] != c) {
+					j++;
+				}
+				if (j == this.otherCount) {
+					if (j == this.others.length) {
+						this.others = Arrays.copyOf(this.others, j << 1);
+						this.otherMasks = Arrays.copyOf(this.otherMasks, j << 1);
+					}
+					this.others[j] = c;
+					this.otherMasks[j] = 0;
+					this.otherCount++;
+				}
+				this.otherMasks[j] |= 1L << i;
+			}
+		}
+
+		/*
+		 * Get the distance from the pattern to a string
+		 */
+		private int to(String text) {
+			int m = this.pattern.length();
+			if (m == 0) {
+				return text.length();
+			}
+			if (m > Long.SIZE) {
+				return table(text);
+			}
+
+			// The vertical differences down the current column, as positive and
+			// negative bits, with the score tracked in the last row
+			long positive = -1L;
+			long negative = 0;
+			long last = 1L << (m - 1);
+			int score = m;
+
+			for (int j = 0; j < text.length(); j++) {
+				long eq = mask(text.charAt(j));
+				long xv = eq | negative;
+				long xh = (((eq & positive) + positive) ^ positive) | eq;
+				long horizontalPositive = negative | ~(xh | positive);
+				long horizontalNegative = positive & xh;
+
+				if ((horizontalPositive & last) != 0) {
+					score++;
+				} else if ((horizontalNegative & last) != 0) {
+					score--;
+				}
+
+				// The top row of the table grows by one at every column
+				horizontalPositive = (horizontalPositive << 1) | 1;
+				horizontalNegative <<= 1;
+				positive = horizontalNegative | ~(xv | horizontalPositive);
+				negative = horizontalPositive & xv;
+			}
+
+			return score;
+		}
+
+		/*
+		 * Get the mask of where a character appears in the pattern
+		 */
+		private long mask(char c) {
+			if (c < 128) {
+				return this.ascii[c];
+			}
+			for (int i = 0; i < this.otherCount; i++) {
+				if (this.others[i] == c) {
+					return this.otherMasks[i];
+				}
+			}
+			return 0;
+		}
+
+		/*
+		 * Get the distance from the pattern to a string by filling in the table a
+		 * row at a time
+		 */
+		private int table(String text) {
+			int n = text.length();
+			if (n >= this.previous.length) {
+				this.previous = new int[n + 1];
+				this.current = new int[n + 1];
+			}
+
+			int[] previous = this.previous;
+			int[] current = this.current;
+			for (int j = 0; j <= n; j++) {
+				previous[j] = j;
+			}
+
+			for (int i = 1; i <= this.pattern.length(); i++) {
+				char c = this.pattern.charAt(i - 1);
+				current[0] = i;
+				for (int j = 1; j <= n; j++) {
+					int cost = c == text.charAt(j - 1) ? 0 : 1;
+					current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+				}
+
+				int[] swap = previous;
+				previous = current;
+				current = swap;
+			}
+
+			return previous[n];
+		}
+	}
+}
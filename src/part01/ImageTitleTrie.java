@@ -0,0 +1,352 @@
+package part01;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * The ImageTitleTrie class is a radix trie over the folded titles of the
+ * images in an ImageManager, for completing a title from its first few
+ * characters. Each edge is labelled with a run of characters rather than a
+ * single one, so there are at most two nodes for each distinct title, and the
+ * labels point into one shared character array instead of being strings of
+ * their own.
+ *
+ * Every node records the number of images with the title ending at it and the
+ * most images of any title below it. Completions are found best first from
+ * the node the prefix leads to, so only the branches holding the most common
+ * titles are visited. Titles can be added one at a time, and adding every
+ * title in position order builds the trie in a single pass
+ */
+public class ImageTitleTrie {
+
+	// Marker for a missing child, sibling or position
+	private static final int NONE = -1;
+
+	// Flag packed into a search entry for the title ending at a node, rather
+	// than the titles below it
+	private static final long TITLE = 1L << 31;
+
+	private char[] text; // Store the characters of every edge label
+	private int textLength; // Number of characters in use
+
+	private int[] labelStart; // Store where the label of each node's edge starts
+	private int[] labelLength; // Store the length of the label of each node's edge
+	private int[] firstChild; // Store the first child of each node
+	private int[] nextSibling; // Store the next child of each node's parent
+	private int[] counts; // Store the number of images whose title ends at each node
+	private int[] best; // Store the largest count of any node at or below each node
+	private int[] positions; // Store the first image whose title ends at each node
+	private int size; // Number of nodes, including the root
+	private int titles; // Number of distinct titles
+
+	// Nodes on the path to the last title added, reused so adding allocates nothing
+	private int[] path;
+
+	/**
+	 * Constructor for the ImageTitleTrie class
+	 */
+	public ImageTitleTrie() {
+		this.text = new char[256];
+		this.labelStart = new int[16];
+		this.labelLength = new int[16];
+		this.firstChild = new int[16];
+		this.nextSibling = new int[16];
+		this.counts = new int[16];
+		this.best = new int[16];
+		this.positions = new int[16];
+		this.path = new int[16];
+
+		// The root has an empty label
+		newNode(0, 0);
+	}
+
+	/**
+	 * Add the title of an image to the trie
+	 *
+	 * @param title    The folded title of the image
+	 * @param position The position of the image in the collection
+	 */
+	public void add(String title, int position) {
+		if (title == null) {
+			return;
+		}
+
+		int node = 0;
+		int depth = 0;
+		int i = 0;
+		while (true) {
+			if (depth == this.path.length) {
+				this.path = Arrays.copyOf(this.path, depth << 1);
+			}
+			this.path[depth++] = node;
+
+			if (i == title.length()) {
+				break;
+			}
+
+			int child = findChild(node, title.charAt(i));
+			if (child == NONE) {
+				// The rest of the title becomes the label of a new leaf
+				int leaf = newNode(appendText(title, i), title.length() - i);
+				linkChild(node, leaf);
+				node = leaf;
+				if (depth == this.path.length) {
+					this.path = Arrays.copyOf(this.path, depth << 1);
+				}
+				this.path[depth++] = node;
+				break;
+			}
+
+			// Follow the label of the child as far as it matches the title
+			int start = this.labelStart[child];
+			int length = this.labelLength[child];
+			int matched = 1;
+			while (matched < length && i + matched < title.length()
+					&& this.text[start + matched] == title.charAt(i + matched)) {
+				matched++;
+			}
+
+			if (matched < length) {
+				child = split(node, child, matched);
+			}
+			node = child;
+			i += matched;
+		}
+
+		// Count the image at the node its title ends at
+		if (this.counts[node] == 0) {
+			this.positions[node] = position;
+			this.titles++;
+		}
+		int count = ++this.counts[node];
+		for (int j = 0; j < depth; j++) {
+			if (this.best[this.path[j]] < count) {
+				this.best[this.path[j]] = count;
+			}
+		}
+	}
+
+	/**
+	 * Find the most common titles starting with a prefix
+	 *
+	 * @param prefix The folded start of the title
+	 * @param limit  The largest number of titles to return
+	 * @return The position of the first image with each title, from the title
+	 *         held by the most images to the fewest
+	 */
+	public int[] complete(String prefix, int limit) {
+		int node = find(prefix);
+		if (node == NONE || limit <= 0) {
+			return new int[0];
+		}
+
+		// Entries hold a count above a node, with the TITLE flag for the title ending
+		// at the node itself rather than the titles below it
+		PriorityQueue<Long> queue = new PriorityQueue<Long>((a, b) -> Long.compare(b, a));
+		queue.add(entry(this.best[node], node, false));
+
+		int[] result = new int[limit];
+		int size = 0;
+		while (size < limit && !queue.isEmpty()) {
+			long entry = queue.poll();
+			int current = (int) (TITLE - 1 - (entry & (TITLE - 1)));
+
+			if ((entry & TITLE) != 0) {
+				result[size++] = this.positions[current];
+				continue;
+			}
+
+			// No title below a node is held by more images than its best count, so
+			// each branch is only opened once nothing better is waiting
+			if (this.counts[current] > 0) {
+				queue.add(entry(this.counts[current], current, true));
+			}
+			for (int child = this.firstChild[current]; child != NONE; child = this.nextSibling[child]) {
+				queue.add(entry(this.best[child], child, false));
+			}
+		}
+
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Get the number of distinct titles in the trie
+	 *
+	 * @return The number of titles
+	 */
+	public int size() {
+		return this.titles;
+	}
+
+	/*
+	 * Find the node a prefix leads to, which may be part way along its edge
+	 */
+	private int find(String prefix) {
+		if (prefix == null) {
+			return NONE;
+		}
+
+		int node = 0;
+		int i = 0;
+		while (i < prefix.length()) {
+			node = findChild(node, prefix.charAt(i));
+			if (node == NONE) {
+				return NONE;
+			}
+
+			int start = this.labelStart[node];
+			int length = this.labelLength[node];
+			for (int j = 1; j < length && i + j < prefix.length(); j++) {
+				if (this.text[start + j] != prefix.charAt(i + j)) {
+					return NONE;
+				}
+			}
+			i += length;
+		}
+		return node;
+	}
+
+	/*
+	 * Pack a search entry, ordering larger counts first and then earlier nodes
+	 */
+	private static long entry(int count, int node, boolean isTitle) {
+		// Titles come before branches with the same count, as they are complete
+		return ((long) count << 32) | (isTitle ? TITLE : 0) | (TITLE - 1 - node);
+	}
+
+	/*
+	 * Find the child of a node whose label starts with a character
+	 */
+	private int findChild(int node, char c) {
+		for (int child = this.firstChild[node]; child != NONE; child = this.nextSibling[child]) {
+			if (this.text[this.labelStart[child]] == c) {
+				return child;
+			}
+		}
+		return NONE;
+	}
+
+	/*
+	 * Split the edge into a child after some characters of its label, returning
+	 * the new node at the split that takes the child's place
+	 */
+	private int split(int parent, int child, int at) {
+		int middle = newNode(this.labelStart[child], at);
+		this.best[middle] = this.best[child];
+
+		// Put the middle node in the child's place among its siblings
+		this.nextSibling[middle] = this.nextSibling[child];
+		if (this.firstChild[parent] == child) {
+			this.firstChild[parent] = middle;
+		} else {
+			int previous = this.firstChild[parent];
+			while (this.nextSibling[previous] != child) {
+				previous = this.nextSibling[previous];
+			}
+			this.nextSibling[previous] = middle;
+		}
+
+		// The child keeps the rest of its label below the middle node
+		this.labelStart[child] += at;
+		this.labelLength[child] -= at;
+		this.nextSibling[child] = NONE;
+		this.firstChild[middle] = child;
+
+		return middle;
+	}
+
+	/*
+	 * Add a node as the first child of another
+	 */
+	private void linkChild(int parent, int child) {
+		this.nextSibling[child] = this.firstChild[parent];
+		this.firstChild[parent] = child;
+	}
+
+	/*
+	 * Create a node whose edge is labelled by a run of the shared text
+	 */
+	private int newNode(int start, int length) {
+		if (this.size == this.labelStart.length) {
+			int capacity = this.size << 1;
+			this.labelStart = Arrays.copyOf(this.labelStart, capacity);
+			this.labelLength = Arrays.copyOf(this.labelLength, capacity);
+			this.firstChild = Arrays.copyOf(this.firstChild, capacity);
+			this.nextSibling = Arrays.copyOf(this.nextSibling, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
+			this.best = Arrays.copyOf(this.best, capacity);
+			this.positions = Arrays.copyOf(this.positions, capacity);
+		}
+
+		int node = this.size++;
+		this.labelStart[node] = start;
+		this.labelLength[node] = length;
+		this.firstChild[node] = NONE;
+		this.nextSibling[node] = NONE;
+		this.counts[node] = 0;
+		this.best[node] = 0;
+		this.positions[node] = NONE;
+		return node;
+	}
+
+	/*
+	 * Append the characters of a string from an index to the shared text,
+	 * returning where they start
+	 */
+	private int appendText(String str, int from) {
+		int length = str.length() - from;
+		if (this.textLength + length > this.text.length) {
+			this.text = Arrays.copyOf(this.text, Math.max(this.textLength + length, this.text.length << 1));
+		}
+		str.getChars(from, str.length(), this.text, this.textLength);
+
+		int start = this.textLength;
+		this.textLength += length;
+		return start;
+	}
+
+	/*
+	 * Write the trie to an index file
+	 */
+	void write(ImageIndexFile.Output out) throws IOException {
+		out.writeInt(this.size);
+		out.writeInt(this.titles);
+		out.writeChars(this.text, this.textLength);
+		out.writeInts(this.labelStart, this.size);
+		out.writeInts(this.labelLength, this.size);
+		out.writeInts(this.firstChild, this.size);
+		out.writeInts(this.nextSibling, this.size);
+		out.writeInts(this.counts, this.size);
+		out.writeInts(this.best, this.size);
+		out.writeInts(this.positions, this.size);
+	}
+
+	/*
+	 * Read a trie written by write
+	 */
+	static ImageTitleTrie read(ImageIndexFile.Input in) throws IOException {
+		ImageTitleTrie trie = new ImageTitleTrie();
+		trie.size = in.readInt();
+		trie.titles = in.readInt();
+		trie.text = in.readChars(256);
+		trie.textLength = trie.text.length;
+		trie.labelStart = in.readInts(16);
+		trie.labelLength = in.readInts(16);
+		trie.firstChild = in.readInts(16);
+		trie.nextSibling = in.readInts(16);
+		trie.counts = in.readInts(16);
+		trie.best = in.readInts(16);
+		trie.positions = in.readInts(16);
+
+		// There is always a root, and every array of the nodes must be the same length
+		int capacity = trie.labelStart.length;
+		if (trie.size < 1 || (trie.size > 16 && trie.size != capacity) || trie.labelLength.length != capacity
+				|| trie.firstChild.length != capacity || trie.nextSibling.length != capacity
+				|| trie.counts.length != capacity || trie.best.length != capacity
+				|| trie.positions.length != capacity) {
+			throw new IOException("Damaged image index file.");
+		}
+		return trie;
+	}
+}
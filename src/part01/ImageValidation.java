@@ -0,0 +1,122 @@
+package part01;
+
+/**
+ * The ImageValidation class holds the result of creating an ImageRecord with
+ * ImageRecord.create. It holds either the new ImageRecord, or a bitmask of the
+ * fields that were not valid, so dirty data can be rejected without an
+ * exception being thrown and a stack trace captured for every bad record. The
+ * error message is only built if it is asked for
+ */
+public final class ImageValidation {
+
+	// Bits of the error mask, one for each field that can be invalid
+	public static final int BAD_TITLE = 1;
+	public static final int BAD_DESCRIPTION = 2;
+	public static final int BAD_THUMBNAIL = 4;
+	public static final int BAD_DATE = 8;
+
+	private ImageRecord image; // The created image, or null if it was invalid
+	private int errors; // Bitmask of the invalid fields, or 0 if none were
+
+	// The values given for the fields, kept to describe the errors
+	private String title;
+	private String description;
+	private String thumbnail;
+	private String date;
+
+	/*
+	 * Constructor for the result of a valid ImageRecord
+	 */
+	ImageValidation(ImageRecord image) {
+		this.image = image;
+	}
+
+	/*
+	 * Constructor for the result of an invalid ImageRecord
+	 */
+	ImageValidation(int errors, String title, String description, String thumbnail, String date) {
+		this.errors = errors;
+		this.title = title;
+		this.description = description;
+		this.thumbnail = thumbnail;
+		this.date = date;
+	}
+
+	/**
+	 * Check whether the ImageRecord was created
+	 *
+	 * @return True if every field was valid, false otherwise
+	 */
+	public boolean isValid() {
+		return this.errors == 0;
+	}
+
+	/**
+	 * Get the created ImageRecord
+	 *
+	 * @return The ImageRecord, or null if a field was invalid
+	 */
+	public ImageRecord getImage() {
+		return this.image;
+	}
+
+	/**
+	 * Get the fields that were invalid
+	 *
+	 * @return A bitmask of BAD_TITLE, BAD_DESCRIPTION, BAD_THUMBNAIL and
+	 *         BAD_DATE, or 0 if every field was valid
+	 */
+	public int getErrors() {
+		return this.errors;
+	}
+
+	/**
+	 * Check whether a field was invalid
+	 *
+	 * @param error The bit of the field, such as BAD_TITLE
+	 * @return True if the field was invalid, false otherwise
+	 */
+	public boolean hasError(int error) {
+		return (this.errors & error) != 0;
+	}
+
+	/**
+	 * Get a message describing each invalid field on its own line
+	 *
+	 * @return The error message, or an empty string if every field was valid
+	 */
+	public String getMessage() {
+		return describe(this.errors, this.title, this.description, this.thumbnail, this.date, "\n");
+	}
+
+	/**
+	 * Return a string representation of the result
+	 *
+	 * @return The ImageRecord if it was created, or the error message
+	 */
+	public String toString() {
+		return isValid() ? this.image.toString() : getMessage();
+	}
+
+	/*
+	 * Describe each invalid field of an error mask, ending each description with
+	 * a separator
+	 */
+	static String describe(int errors, String title, String description, String thumbnail, String date,
+			String separator) {
+		StringBuilder sb = new StringBuilder();
+		if ((errors & BAD_TITLE) != 0) {
+			sb.append("Bad title: ").append(title).append(separator);
+		}
+		if ((errors & BAD_DESCRIPTION) != 0) {
+			sb.append("Bad image description: ").append(description).append(separator);
+		}
+		if ((errors & BAD_THUMBNAIL) != 0) {
+			sb.append("Bad thumbnail title: ").append(thumbnail).append(separator);
+		}
+		if ((errors & BAD_DATE) != 0) {
+			sb.append("Invalid date: ").append(date).append(separator);
+		}
+		return sb.toString();
+	}
+}
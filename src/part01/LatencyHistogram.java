@@ -0,0 +1,208 @@
+package part01;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyHistogram class counts how long an operation takes, in
+ * nanoseconds, in buckets that grow with the value as in an HdrHistogram.
+ * Values below 128 ns have a bucket each, and every power of two above that
+ * is split into 64 buckets, so a value is never reported more than about 1.6%
+ * above what was recorded however large it is. Recording only updates atomic
+ * counters and allocates nothing, so a histogram can be left recording
+ * permanently and shared between threads
+ */
+public class LatencyHistogram {
+
+	// Number of bits of a value kept by its bucket, beyond the leading bit
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// Values below this each have their own bucket
+	private static final int LINEAR = SUB_BUCKETS << 1;
+
+	// Enough buckets for every positive long
+	private static final int BUCKETS = LINEAR + (62 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private String name; // The name of the operation being timed
+	private AtomicLongArray counts; // Store the number of values in each bucket
+	private AtomicLong count; // Number of values recorded
+	private AtomicLong total; // Sum of the values recorded
+	private AtomicLong max; // Largest value recorded
+
+	/**
+	 * Constructor for the LatencyHistogram class
+	 *
+	 * @param name The name of the operation being timed
+	 */
+	public LatencyHistogram(String name) {
+		this.name = name;
+		this.counts = new AtomicLongArray(BUCKETS);
+		this.count = new AtomicLong();
+		this.total = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 * Record a time taken
+	 *
+	 * @param nanos The time taken in nanoseconds. Negative times are recorded as
+	 *              0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		this.counts.incrementAndGet(bucketOf(value));
+		this.count.incrementAndGet();
+		this.total.addAndGet(value);
+		this.max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Record the time taken since an operation started
+	 *
+	 * @param start The value of System.nanoTime when the operation started
+	 */
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Get the name of the operation being timed
+	 *
+	 * @return The name of the operation
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Get the number of times recorded
+	 *
+	 * @return The number of times the operation was recorded
+	 */
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * Get the mean time recorded
+	 *
+	 * @return The mean time in nanoseconds, or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long count = this.count.get();
+		return count == 0 ? 0 : (double) this.total.get() / count;
+	}
+
+	/**
+	 * Get the largest time recorded
+	 *
+	 * @return The largest time in nanoseconds
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * Get the time that a percentage of the recorded times are at or below
+	 *
+	 * @param percentile The percentage, from 0 to 100
+	 * @return The highest time in the bucket holding the percentile, in
+	 *         nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += this.counts.get(i);
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		// The number of values that must be at or below the result
+		long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestOf(i), this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+	/**
+	 * Get the number of times recorded in a bucket
+	 *
+	 * @param bucket The index of the bucket
+	 * @return The number of times in the bucket
+	 */
+	public long getBucketCount(int bucket) {
+		return this.counts.get(bucket);
+	}
+
+	/**
+	 * Get the number of buckets times are recorded in
+	 *
+	 * @return The number of buckets
+	 */
+	public static int getBucketTotal() {
+		return BUCKETS;
+	}
+
+	/**
+	 * Get the lowest time recorded in a bucket
+	 *
+	 * @param bucket The index of the bucket
+	 * @return The lowest time of the bucket in nanoseconds
+	 */
+	public static long lowestOf(int bucket) {
+		if (bucket < LINEAR) {
+			return bucket;
+		}
+		int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+		long sub = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return sub << shift;
+	}
+
+	/**
+	 * Get the highest time recorded in a bucket
+	 *
+	 * @param bucket The index of the bucket
+	 * @return The highest time of the bucket in nanoseconds
+	 */
+	public static long highestOf(int bucket) {
+		if (bucket < LINEAR) {
+			return bucket;
+		}
+		int shift = (bucket - LINEAR) / SUB_BUCKETS + 1;
+		return lowestOf(bucket) + (1L << shift) - 1;
+	}
+
+	/**
+	 * Clear every recorded time
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.counts.set(i, 0);
+		}
+		this.count.set(0);
+		this.total.set(0);
+		this.max.set(0);
+	}
+
+	/*
+	 * Get the bucket a value is counted in
+	 */
+	private static int bucketOf(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+
+		// Keep the leading bit and the next SUB_BUCKET_BITS bits of the value
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift);
+		return LINEAR + (shift - 1) * SUB_BUCKETS + (sub - SUB_BUCKETS);
+	}
+}
@@ -0,0 +1,106 @@
+package part01;
+
+import java.util.ArrayList;
+
+/**
+ * The LazyImageAlbum class is an ImageAlbum over the positions of its images
+ * in an ImageColumns store, kept in the order they are given. Most albums are
+ * in date order, but the results of fuzzy, duplicate and ranked searches are
+ * nearest or most relevant first, and say so. ImageRecords are only
+ * created a page at a time as the album is navigated, so the first image of
+ * even a very large album is available straight away. Calling getAlbum
+ * creates every ImageRecord at once, and is best avoided on large albums
+ */
+public class LazyImageAlbum extends ImageAlbum {
+
+	// Number of ImageRecords created together when one of them is needed
+	private static final int PAGE_SIZE = 64;
+
+	private ImageColumns columns; // The column store holding the images
+	private int[] positions; // Store the position of each image, in album order
+	private boolean isDateOrdered; // True if the positions are in date order
+
+	private ImageRecord[] page; // Store the ImageRecords of the current page
+	private int pageStart = -1; // Index of the first image of the current page
+
+	private ArrayList<ImageRecord> album; // Every ImageRecord, once getAlbum is called
+
+	/*
+	 * Constructor for a LazyImageAlbum over positions in the order given, which
+	 * may or may not be date order
+	 */
+	LazyImageAlbum(ImageColumns columns, int[] positions, boolean isDateOrdered) {
+		this.columns = columns;
+		this.positions = positions;
+		this.isDateOrdered = isDateOrdered;
+		this.page = new ImageRecord[PAGE_SIZE];
+	}
+
+	/**
+	 * Get the number of images in the album
+	 *
+	 * @return The number of images
+	 */
+	public int size() {
+		return this.positions.length;
+	}
+
+	/**
+	 * Get the image at an index of the album, creating the page of ImageRecords
+	 * around it if it is not the current page
+	 *
+	 * @param index The index of the image, from 0 to size() - 1
+	 * @return The ImageRecord at the index
+	 * @throws IndexOutOfBoundsException If the index is not within the album
+	 */
+	public ImageRecord get(int index) {
+		if (index < 0 || index >= this.positions.length) {
+			throw new IndexOutOfBoundsException("Index " + index + " of " + this.positions.length);
+		}
+
+		if (this.album != null) {
+			return this.album.get(index);
+		}
+
+		if (this.pageStart < 0 || index < this.pageStart || index >= this.pageStart + PAGE_SIZE) {
+			loadPage(index - index % PAGE_SIZE);
+		}
+		return this.page[index - this.pageStart];
+	}
+
+	/**
+	 * Get the entire album of images, creating every ImageRecord the first time
+	 *
+	 * @return The ArrayList containing all ImageRecord objects in the album
+	 */
+	public ArrayList<ImageRecord> getAlbum() {
+		if (this.album == null) {
+			ArrayList<ImageRecord> result = new ArrayList<ImageRecord>(this.positions.length);
+			for (int position : this.positions) {
+				result.add(this.columns.getImage(position));
+			}
+			this.album = result;
+		}
+
+		return this.album;
+	}
+
+	/*
+	 * Check whether the images are in the order they were taken, rather than
+	 * nearest or most relevant first
+	 */
+	boolean isDateOrdered() {
+		return this.isDateOrdered;
+	}
+
+	/*
+	 * Create the ImageRecords of the page starting at an index
+	 */
+	private void loadPage(int start) {
+		int end = Math.min(start + PAGE_SIZE, this.positions.length);
+		for (int i = start; i < end; i++) {
+			this.page[i - start] = this.columns.getImage(this.positions[i]);
+		}
+		this.pageStart = start;
+	}
+}
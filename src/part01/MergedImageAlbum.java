@@ -0,0 +1,214 @@
+package part01;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+
+/**
+ * The MergedImageAlbum class is an ImageAlbum merging several runs of images
+ * that are each in date order, such as the matches of one search in every
+ * stripe of a ConcurrentImageManager. A run is either positions in an
+ * ImageColumns store or a few ImageRecords. Creating the album only works out
+ * the order of the images from their dates, and ImageRecords are created a
+ * page at a time as the album is navigated, as in a LazyImageAlbum. Images
+ * taken on the same date keep the order of their runs
+ */
+public class MergedImageAlbum extends ImageAlbum {
+
+	// Number of ImageRecords created together when one of them is needed
+	private static final int PAGE_SIZE = 64;
+
+	private ImageColumns[] stores; // Store the column store of each run, or null for ImageRecords
+	private int[][] positions; // Store the positions of each run held in a column store
+	private ImageRecord[][] records; // Store the ImageRecords of each run not held in a store
+
+	private int[] runs; // Store the run of each image, in date order
+	private int[] indexes; // Store the index of each image within its run
+
+	private ImageRecord[] page; // Store the ImageRecords of the current page
+	private int pageStart = -1; // Index of the first image of the current page
+
+	private ArrayList<ImageRecord> album; // Every ImageRecord, once getAlbum is called
+
+	/*
+	 * Constructor for a MergedImageAlbum over runs in date order. Run i is the
+	 * positions[i] of stores[i], or records[i] if stores[i] is null
+	 */
+	MergedImageAlbum(ImageColumns[] stores, int[][] positions, ImageRecord[][] records) {
+		this.stores = stores;
+		this.positions = positions;
+		this.records = records;
+		this.page = new ImageRecord[PAGE_SIZE];
+		merge();
+	}
+
+	/**
+	 * Get the number of images in the album
+	 *
+	 * @return The number of images
+	 */
+	public int size() {
+		return this.runs.length;
+	}
+
+	/**
+	 * Get the image at an index of the album, creating the page of ImageRecords
+	 * around it if it is not the current page
+	 *
+	 * @param index The index of the image, from 0 to size() - 1
+	 * @return The ImageRecord at the index
+	 * @throws IndexOutOfBoundsException If the index is not within the album
+	 */
+	public ImageRecord get(int index) {
+		if (index < 0 || index >= this.runs.length) {
+			throw new IndexOutOfBoundsException("Index " + index + " of " + this.runs.length);
+		}
+
+		if (this.album != null) {
+			return this.album.get(index);
+		}
+
+		if (this.pageStart < 0 || index < this.pageStart || index >= this.pageStart + PAGE_SIZE) {
+			loadPage(index - index % PAGE_SIZE);
+		}
+		return this.page[index - this.pageStart];
+	}
+
+	/**
+	 * Get the entire album of images, creating every ImageRecord the first time
+	 *
+	 * @return The ArrayList containing all ImageRecord objects in the album
+	 */
+	public ArrayList<ImageRecord> getAlbum() {
+		if (this.album == null) {
+			ArrayList<ImageRecord> result = new ArrayList<ImageRecord>(this.runs.length);
+			for (int i = 0; i < this.runs.length; i++) {
+				result.add(create(i));
+			}
+			this.album = result;
+		}
+
+		return this.album;
+	}
+
+	/*
+	 * Get the epoch day an ImageRecord was taken on, or ImageColumns.NO_DATE if
+	 * it has none, so it is ordered first as in a column store
+	 */
+	static int epochDayOf(ImageRecord image) {
+		LocalDate date = image.getDateTaken();
+		return date == null ? ImageColumns.NO_DATE : (int) date.toEpochDay();
+	}
+
+	/*
+	 * Merge the runs by date, keeping a heap of the runs ordered by the date of
+	 * their next image, then by run
+	 */
+	private void merge() {
+		int count = this.stores.length;
+		int total = 0;
+		for (int run = 0; run < count; run++) {
+			total += length(run);
+		}
+		this.runs = new int[total];
+		this.indexes = new int[total];
+
+		int[] at = new int[count];
+		int[] heap = new int[count];
+		int heapSize = 0;
+		for (int run = 0; run < count; run++) {
+			if (length(run) > 0) {
+				heap[heapSize++] = run;
+			}
+		}
+		for (int i = heapSize / 2 - 1; i >= 0; i--) {
+			siftDown(heap, heapSize, i, at);
+		}
+
+		for (int i = 0; i < total; i++) {
+			int run = heap[0];
+			this.runs[i] = run;
+			this.indexes[i] = at[run]++;
+
+			// Drop the run once it is used up, or move it down by its next date
+			if (at[run] == length(run)) {
+				heap[0] = heap[--heapSize];
+			}
+			siftDown(heap, heapSize, 0, at);
+		}
+	}
+
+	/*
+	 * Move a run down the heap until neither of its children comes before it
+	 */
+	private void siftDown(int[] heap, int heapSize, int i, int[] at) {
+		while (true) {
+			int first = i;
+			for (int child = 2 * i + 1; child <= 2 * i + 2 && child < heapSize; child++) {
+				if (isBefore(heap[child], at[heap[child]], heap[first], at[heap[first]])) {
+					first = child;
+				}
+			}
+			if (first == i) {
+				return;
+			}
+
+			int run = heap[i];
+			heap[i] = heap[first];
+			heap[first] = run;
+			i = first;
+		}
+	}
+
+	/*
+	 * Check whether the image at an index of one run comes before the image at
+	 * an index of another
+	 */
+	private boolean isBefore(int run, int index, int otherRun, int otherIndex) {
+		int day = epochDay(run, index);
+		int otherDay = epochDay(otherRun, otherIndex);
+		return day < otherDay || (day == otherDay && run < otherRun);
+	}
+
+	/*
+	 * Get the number of images in a run
+	 */
+	private int length(int run) {
+		return this.stores[run] != null ? this.positions[run].length : this.records[run].length;
+	}
+
+	/*
+	 * Get the epoch day of the image at an index of a run
+	 */
+	private int epochDay(int run, int index) {
+		if (this.stores[run] != null) {
+			return this.stores[run].getEpochDay(this.positions[run][index]);
+		}
+		return epochDayOf(this.records[run][index]);
+	}
+
+	/*
+	 * Create an ImageRecord for the image at an index of the album. Records
+	 * from a run are copied, so changing one cannot change the run
+	 */
+	private ImageRecord create(int i) {
+		int run = this.runs[i];
+		if (this.stores[run] != null) {
+			return this.stores[run].getImage(this.positions[run][this.indexes[i]]);
+		}
+
+		ImageRecord image = this.records[run][this.indexes[i]];
+		return new ImageRecord(image.getId(), image.getTitle(), image.getDescription(), image.getGenre(),
+				image.getDateTaken(), image.getThumbnail());
+	}
+
+	/*
+	 * Create the ImageRecords of the page starting at an index
+	 */
+	private void loadPage(int start) {
+		int end = Math.min(start + PAGE_SIZE, this.runs.length);
+		for (int i = start; i < end; i++) {
+			this.page[i - start] = create(i);
+		}
+		this.pageStart = start;
+	}
+}
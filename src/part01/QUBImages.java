@@ -20,6 +20,9 @@ public class QUBImages {
 	// Static scanner for user input
 	static Scanner input = new Scanner(System.in);
 
+	// Number of images shown when a title search falls back to the closest titles
+	static final int CLOSEST_TITLES = 10;
+
 	/**
 	 * Main method
 	 * 
@@ -241,10 +244,19 @@ public class QUBImages {
 		// Perform the specific search based on the search type
 		switch (optionMsg) {
 		case "title":
-			matchingImages = myImages.searchTitle(target);
+			matchingImages = myImages.searchTitle(target, true);
+
+			// A title with no matches may be misspelt, so show the closest titles instead
+			if (matchingImages.size() == 0) {
+				matchingImages = myImages.searchTitleFuzzy(target, CLOSEST_TITLES);
+				if (matchingImages.size() > 0) {
+					System.out.println("\nNo exact matches, showing the closest titles.");
+					optionMsg = "a title close to";
+				}
+			}
 			break;
 		case "description":
-			matchingImages = myImages.searchDescription(target);
+			matchingImages = myImages.searchDescription(target, true);
 			break;
 		case "genre":
 			matchingImages = myImages.searchGenre(targetGenre);
@@ -307,15 +319,15 @@ public class QUBImages {
 	 * @param target         The user-specified target for the search
 	 */
 	public static void printSearchResult(ImageAlbum matchingImages, String optionMsg, String target) {
-		if (matchingImages.getAlbum().size() == 1) {
+		if (matchingImages.size() == 1) {
 			// Display a message for a single matching image
 			System.out.println("\n1 image with " + optionMsg + " '" + target + "' found!\n");
 			// Display the details of the matching image
 			displayImages(matchingImages);
-		} else if (matchingImages.getAlbum().size() > 0) {
+		} else if (matchingImages.size() > 0) {
 			// Display a message for multiple matching images
 			System.out.println(
-					"\n" + matchingImages.getAlbum().size() + " images with " + optionMsg + " '" + target + "' found!");
+					"\n" + matchingImages.size() + " images with " + optionMsg + " '" + target + "' found!");
 			// Call method to navigate through the matching images
 			navigateImages(matchingImages);
 		} else {
@@ -331,9 +343,9 @@ public class QUBImages {
 	 */
 	public static void navigateImages(ImageAlbum alb) {
 
-		for (int i = 0; i < alb.getAlbum().size(); i++) {
+		for (int i = 0; i < alb.size(); i++) {
 			// Print brief details of each image
-			System.out.println(alb.getAlbum().get(i));
+			System.out.println(alb.get(i));
 		}
 
 		// Display introductory message with the current image number
@@ -439,10 +451,10 @@ public class QUBImages {
 		// Search for images within the specified date range
 		ImageAlbum matchingImages = myImages.searchDates(startDate, endDate);
 
-		if (matchingImages.getAlbum().size() > 0) {
+		if (matchingImages.size() > 0) {
 			// Display a message and prepare navigation for images found within the date
 			// range
-			System.out.println("\n" + matchingImages.getAlbum().size() + " images between " + startDate + " and "
+			System.out.println("\n" + matchingImages.size() + " images between " + startDate + " and "
 					+ endDate + " found!\n");
 			navigateImages(matchingImages);
 		} else {
@@ -500,9 +512,9 @@ public class QUBImages {
 	 * @param collection The ImageAlbum containing the images to be displayed
 	 */
 	public static void displayImages(ImageAlbum collection) {
-		for (int i = 0; i < collection.getAlbum().size(); i++) {
+		for (int i = 0; i < collection.size(); i++) {
 			// Print the details of each image
-			System.out.println(collection.getAlbum().get(i).getDetails());
+			System.out.println(collection.get(i).getDetails());
 		}
 	}
 
@@ -4,13 +4,21 @@ import java.awt.Color;
 import java.awt.Font;
 
 import console.Console;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Scanner;
 
 import javax.swing.ImageIcon;
 
 import part01.ImageAlbum;
+import part01.ImageCatalogue;
+import part01.ImageDates;
+import part01.ImageHashes;
+import part01.ImageLoader;
 import part01.ImageManager;
+import part01.ImageQuery;
 import part01.ImageRecord;
 import part01.ImageType;
 
@@ -21,12 +29,35 @@ import part01.ImageType;
 public class QUBMediaImages {
 
 	// Static menu options and menu instance
-	static String[] menuOptions = { "Add Image", "Search", "Display All", "Exit" };
+	static String[] menuOptions = { "Add Image", "Search", "Display All", "Statistics", "Exit" };
 	static Menu myImagesMenu = new Menu("QUB Images", menuOptions);
 
+	// Static perceptual hashes of the images, for warning about near-duplicates
+	static ImageHashes imageHashes = initialiseImageHashes();
+
 	// Static ImageManager instance to manage images
 	static ImageManager myImages = initialiseImageManager();
 
+	// Static store of pre-scaled thumbnails, updated for any images changed since
+	// the last run
+	static ThumbnailPyramid pyramid = initialiseThumbnailPyramid();
+
+	// Static cache of decoded thumbnails, loaded at the largest size that fits the
+	// 1200 x 500 media console and bounded to 64 MB of decoded pixels
+	static ThumbnailCache thumbnails = new ThumbnailCache(pyramid, 1200, 500, 64L * 1024 * 1024);
+
+	// Number of images displayed at a time when displaying a whole album
+	static final int DISPLAY_CHUNK_SIZE = 10;
+
+	// Number of images shown when a title search falls back to the closest titles
+	static final int CLOSEST_TITLES = 10;
+
+	// Number of images listed by a search for the best matches
+	static final int BEST_MATCHES = 20;
+
+	// Static prefetcher decoding the two thumbnails either side of the one shown
+	static ThumbnailPrefetcher prefetcher = new ThumbnailPrefetcher(thumbnails, 2, 2);
+
 	// Static scanner for user input
 	static Scanner input = new Scanner(System.in);
 
@@ -41,6 +72,15 @@ public class QUBMediaImages {
 		// Initialise the standard error console
 		Console errorCon = initialiseStandardErrorConsole();
 
+		// Time thumbnail loads alongside the ImageManager operations
+		thumbnails.setMetrics(myImages.getMetrics());
+
+		// Warn when an image added looks like one already in the collection
+		myImages.setDuplicateListener(QUBMediaImages::warnDuplicates);
+
+		// Add the images of any manifest files named on the command line
+		loadManifests(args, errorCon);
+
 		// Initialise the choice stored by the user
 		int choice = 0;
 
@@ -87,6 +127,10 @@ public class QUBMediaImages {
 				isInRange = true; // Exit loop since user chose to quit
 				break;
 			case 4:
+				displayStatistics(); // Call method to display the operation statistics
+				isInRange = true; // Exit loop since action is performed
+				break;
+			case 5:
 				isInRange = true; // Exit loop since user chose to quit
 				break;
 			default:
@@ -97,6 +141,38 @@ public class QUBMediaImages {
 		} while (!isInRange); // Continue looping until valid choice is made
 	}
 
+	/**
+	 * Add the images listed in CSV or JSON manifest files to the ImageManager in
+	 * bulk. Records that cannot be loaded are written to a reject file named after
+	 * the manifest with ".rejects" added
+	 *
+	 * @param manifests The paths of the manifest files
+	 * @param errorCon  The Console to display errors on
+	 */
+	public static void loadManifests(String[] manifests, Console errorCon) {
+		ImageLoader loader = new ImageLoader(myImages);
+		for (String manifest : manifests) {
+			try {
+				long start = System.nanoTime();
+				loader.load(Paths.get(manifest), Paths.get(manifest + ".rejects"));
+				long millis = (System.nanoTime() - start) / 1000000;
+
+				mediaCon.println("Loaded " + loader.getLoaded() + " images from " + manifest + " in " + millis
+						+ " ms, rejecting " + loader.getRejected() + ".");
+			} catch (Exception e) {
+				errorCon.println("Could not load " + manifest + ": " + e.getMessage());
+				myImagesMenu.pressReturnToContinue(errorCon, mediaCon);
+			}
+		}
+
+		// Save the indexes of the loaded images, so the next start does not index them
+		try {
+			myImages.saveIndexes();
+		} catch (IOException e) {
+			errorCon.println("Could not save the image indexes: " + e.getMessage());
+		}
+	}
+
 	/**
 	 * Display an introductory message with a specified title
 	 *
@@ -183,13 +259,14 @@ public class QUBMediaImages {
 	/**
 	 * Begin the process of searching for images based on user input. Display a
 	 * search menu with various options, allowing the user to choose the search
-	 * criteria (ID, Title, Description, Genre, Dates, or Exit).
+	 * criteria (ID, Title, Description, Genre, Dates, Combined, Best match, or
+	 * Exit).
 	 */
 	public static void searchImage() {
 		mediaCon.println();
 
 		// Array of search menu options
-		String[] searchMenuOptions = { "ID", "Title", "Description", "Genre", "Dates", "Exit" };
+		String[] searchMenuOptions = { "ID", "Title", "Description", "Genre", "Dates", "Combined", "Best match", "Exit" };
 
 		// Create a Menu instance with specified options
 		Menu searchMenu = new Menu("Let's search for an image!", searchMenuOptions);
@@ -256,13 +333,29 @@ public class QUBMediaImages {
 			// error message and prompting the user to continue
 			Console specialErrorCon = initialiseConsole(true, false, 530, 500, Color.BLACK, Color.RED, "OCR A Extended",
 					Font.PLAIN, 15);
-			ImageIcon img = new ImageIcon(initialiseImagesDirectory() + "magicword.gif");
+			ImageIcon img = thumbnails.get("magicword.gif");
 			specialErrorCon.println(img);
 			specialErrorCon.println("\nERROR: " + e.getMessage());
 			myImagesMenu.pressReturnToContinue(specialErrorCon, mediaCon);
 		}
 	}
 
+	/**
+	 * Warn the user that an image they added looks like images already in the
+	 * collection, listing the closest of them
+	 *
+	 * @param image      The image that was added
+	 * @param duplicates The images it looks like, nearest first
+	 */
+	public static void warnDuplicates(ImageRecord image, ImageAlbum duplicates) {
+		mediaCon.println("\nWARNING: '" + image.getTitle() + "' looks like " + duplicates.size()
+				+ (duplicates.size() == 1 ? " image" : " images") + " already added:");
+		for (int i = 0; i < duplicates.size(); i++) {
+			ImageRecord duplicate = duplicates.get(i);
+			mediaCon.println("  " + duplicate.getTitle() + " (" + duplicate.getThumbnail() + ")");
+		}
+	}
+
 	/**
 	 * Perform the specific search operation based on the user's choice
 	 *
@@ -294,6 +387,14 @@ public class QUBMediaImages {
 				isInRange = true; // Exit loop since action is performed
 				break;
 			case 6:
+				searchCombined(); // Call method to search by several criteria at once
+				isInRange = true; // Exit loop since action is performed
+				break;
+			case 7:
+				searchRanked(); // Call method to list the images most relevant to some words
+				isInRange = true; // Exit loop since action is performed
+				break;
+			case 8:
 				mediaCon.println("Returning to main menu...\n");
 				mediaCon.clear();
 				isInRange = true; // Exit loop since user chose to quit
@@ -327,6 +428,14 @@ public class QUBMediaImages {
 		if (optionMsg == "genre") {
 			target = selectGenre(); // Prompt user to select a genre
 			targetGenre = temp.setGenre(target); // Set the target genre using the temporary ImageRecord object
+		} else if (optionMsg == "title") {
+			mediaCon.print("Enter title (end with ? to list titles starting with it): ");
+			target = mediaCon.readLn();
+
+			// Complete a title ending with a question mark from the titles in the collection
+			if (target.endsWith("?")) {
+				target = completeTitle(target.substring(0, target.length() - 1));
+			}
 		} else {
 			mediaCon.print("Enter " + optionMsg + ": ");
 			target = mediaCon.readLn(); // Prompt user to enter the target (title or description)
@@ -338,10 +447,19 @@ public class QUBMediaImages {
 		// Perform the specific search based on the search type
 		switch (optionMsg) {
 		case "title":
-			matchingImages = myImages.searchTitle(target);
+			matchingImages = myImages.searchTitle(target, true);
+
+			// A title with no matches may be misspelt, so show the closest titles instead
+			if (matchingImages.size() == 0) {
+				matchingImages = myImages.searchTitleFuzzy(target, CLOSEST_TITLES);
+				if (matchingImages.size() > 0) {
+					mediaCon.println("\nNo exact matches, showing the closest titles.");
+					optionMsg = "a title close to";
+				}
+			}
 			break;
 		case "description":
-			matchingImages = myImages.searchDescription(target);
+			matchingImages = myImages.searchDescription(target, true);
 			break;
 		case "genre":
 			matchingImages = myImages.searchGenre(targetGenre);
@@ -356,6 +474,112 @@ public class QUBMediaImages {
 
 	}
 
+	/**
+	 * List the most common titles starting with a prefix and let the user choose
+	 * one of them
+	 *
+	 * @param prefix The start of the title entered by the user
+	 * @return The title chosen, or the prefix if there are none to choose from or
+	 *         the user chooses none of them
+	 */
+	public static String completeTitle(String prefix) {
+		ArrayList<String> titles = myImages.completeTitle(prefix, CLOSEST_TITLES);
+		if (titles.isEmpty()) {
+			return prefix;
+		}
+
+		// The last option keeps the prefix as it was entered
+		titles.add("None of these, search for '" + prefix + "'");
+		Menu titleMenu = new Menu("Titles starting with '" + prefix + "'", titles.toArray(new String[0]));
+		int choice = titleMenu.getUserChoice(mediaCon, initialiseStandardErrorConsole());
+
+		return choice >= 1 && choice < titles.size() ? titles.get(choice - 1) : prefix;
+	}
+
+	/**
+	 * Search for the images most relevant to some words. Images containing any of
+	 * the words in their title or description are ranked, and only the best
+	 * matches are displayed, best first
+	 */
+	public static void searchRanked() {
+		printIntroMessage("Search by best match");
+
+		mediaCon.print("Enter words to search for: ");
+		String target = mediaCon.readLn();
+
+		// Display the search results
+		printSearchResult(myImages.searchRanked(target, BEST_MATCHES), "words matching", target);
+	}
+
+	/**
+	 * Search for images matching several criteria at once. The user is prompted
+	 * for a title, description, genre and date range, any of which can be left
+	 * blank, and only images matching every criterion given are displayed
+	 */
+	public static void searchCombined() {
+		printIntroMessage("Search by several criteria");
+		mediaCon.println("Leave a criterion blank to ignore it.");
+
+		// Collect a query for each criterion the user fills in
+		ArrayList<ImageQuery> criteria = new ArrayList<ImageQuery>();
+		String summary = "";
+
+		mediaCon.print("Enter title: ");
+		String title = mediaCon.readLn();
+		if (title.length() > 0) {
+			criteria.add(ImageQuery.title(title, true));
+			summary += " title '" + title + "'";
+		}
+
+		mediaCon.print("Enter description: ");
+		String desc = mediaCon.readLn();
+		if (desc.length() > 0) {
+			criteria.add(ImageQuery.description(desc, true));
+			summary += " description '" + desc + "'";
+		}
+
+		String genre = selectGenre();
+		if (genre.length() > 0) {
+			// Using the default constructor, create a temporary ImageRecord object for
+			// accessing utility methods
+			ImageType targetGenre = new ImageRecord().setGenre(genre);
+			criteria.add(ImageQuery.genre(targetGenre));
+			summary += " genre '" + targetGenre.name() + "'";
+		}
+
+		try {
+			mediaCon.print("Enter start date (YYYY-MM-DD): ");
+			String start = mediaCon.readLn().trim();
+			mediaCon.print("Enter end date (YYYY-MM-DD): ");
+			String end = mediaCon.readLn().trim();
+
+			// Only search by date when both ends of the range are given
+			if (start.length() > 0 && end.length() > 0) {
+				LocalDate startDate = formatDate(start);
+				LocalDate endDate = formatDate(end);
+				criteria.add(ImageQuery.dates(startDate, endDate, true));
+				summary += " dates '" + startDate + " to " + endDate + "'";
+			}
+		} catch (Exception ex) {
+			// Handle the case where an invalid date format is provided
+			Console errorCon = initialiseStandardErrorConsole();
+			errorCon.println("Invalid date detected: " + ex.getMessage());
+			myImagesMenu.pressReturnToContinue(errorCon, mediaCon);
+			return;
+		}
+
+		if (criteria.size() == 0) {
+			Console errorCon = initialiseStandardErrorConsole();
+			errorCon.println("ERROR: No search criteria entered.\n");
+			myImagesMenu.pressReturnToContinue(errorCon, mediaCon);
+			return;
+		}
+
+		// Search for the images matching every criterion and display the results
+		ImageAlbum matchingImages = myImages.search(ImageQuery.and(criteria.toArray(new ImageQuery[0])));
+		printSearchResult(matchingImages, "criteria", summary.trim());
+	}
+
 	/**
 	 * Search for an image by its ID Prompt the user to enter an ID and validate the
 	 * input Then display information about the found image if it exists, otherwise,
@@ -392,7 +616,7 @@ public class QUBMediaImages {
 		if (targetImage != null) {
 			// Display information about the found image, including its photo
 			String currentImageThumbnail = targetImage.getThumbnail();
-			ImageIcon img = new ImageIcon(initialiseImagesDirectory() + currentImageThumbnail);
+			ImageIcon img = thumbnails.get(currentImageThumbnail);
 
 			mediaCon.println("\nImage with ID " + id + " was found!");
 			mediaCon.println(img);
@@ -414,15 +638,15 @@ public class QUBMediaImages {
 	 * @param target         The user-specified target for the search
 	 */
 	public static void printSearchResult(ImageAlbum matchingImages, String optionMsg, String target) {
-		if (matchingImages.getAlbum().size() == 1) {
+		if (matchingImages.size() == 1) {
 			// Display a message for a single matching image
 			mediaCon.println("\n1 image with " + optionMsg + " '" + target + "' found!\n");
 			// Display the details of the matching image
 			displayImages(matchingImages);
-		} else if (matchingImages.getAlbum().size() > 0) {
+		} else if (matchingImages.size() > 0) {
 			// Display a message for multiple matching images
 			mediaCon.println(
-					"\n" + matchingImages.getAlbum().size() + " images with " + optionMsg + " '" + target + "' found!");
+					"\n" + matchingImages.size() + " images with " + optionMsg + " '" + target + "' found!");
 			// Call method to navigate through the matching images
 			navigateImages(matchingImages);
 		} else {
@@ -443,19 +667,19 @@ public class QUBMediaImages {
 	 */
 	public static void navigateImages(ImageAlbum alb) {
 
-		for (int i = 0; i < alb.getAlbum().size(); i++) {
+		for (int i = 0; i < alb.size(); i++) {
 
 			// Get the thumbnail path for the current image
-			String currentImageThumbnail = alb.getAlbum().get(i).getThumbnail();
+			String currentImageThumbnail = alb.get(i).getThumbnail();
 
-			// Create an ImageIcon using the thumbnail path
-			ImageIcon img = new ImageIcon(initialiseImagesDirectory() + currentImageThumbnail);
+			// Get the ImageIcon for the thumbnail, decoding it only if it is not cached
+			ImageIcon img = thumbnails.get(currentImageThumbnail);
 
 			// Display the image and its details using the mediaCon console
 			mediaCon.println(img);
 
 			// Print brief details of each image
-			mediaCon.println(alb.getAlbum().get(i) + "\n");
+			mediaCon.println(alb.get(i) + "\n");
 		}
 
 		// Display introductory message with the current image number
@@ -463,10 +687,13 @@ public class QUBMediaImages {
 
 		// Display information about the first image
 		String currentImageThumbnail = alb.getFirst().getThumbnail();
-		ImageIcon photo = new ImageIcon(initialiseImagesDirectory() + currentImageThumbnail);
+		ImageIcon photo = thumbnails.get(currentImageThumbnail);
 		mediaCon.println(photo);
 		mediaCon.println(alb.getFirst().getDetails());
 
+		// Start decoding the neighbouring thumbnails in the background
+		prefetcher.prefetch(alb);
+
 		int choice = 0;
 
 		do {
@@ -491,7 +718,8 @@ public class QUBMediaImages {
 					displayNextOrPreviousImage(alb, previousImage);
 					break;
 				case 3:
-					// Exit the loop
+					// Exit the loop, cancelling any prefetches still running
+					prefetcher.cancelAll();
 					mediaCon.println("Exiting...\n");
 					mediaCon.clear();
 					break;
@@ -536,13 +764,16 @@ public class QUBMediaImages {
 			// Display information about the next image
 			printIntroMessage("Displaying image " + (alb.getCurrentImageValue() + 1));
 
-			// Retrieve the thumbnail and create an ImageIcon for the image
+			// Retrieve the thumbnail and get the cached ImageIcon for the image
 			String currentImageThumbnail = img.getThumbnail();
-			ImageIcon photo = new ImageIcon(initialiseImagesDirectory() + currentImageThumbnail);
+			ImageIcon photo = thumbnails.get(currentImageThumbnail);
 
 			// Display the photo and details of the current image
 			mediaCon.println(photo);
 			mediaCon.println(img.getDetails());
+
+			// Prefetch the thumbnails around the new position
+			prefetcher.prefetch(alb);
 		} else {
 			// Inform the user when there are no more images available
 			Console errorCon = initialiseStandardErrorConsole();
@@ -587,10 +818,10 @@ public class QUBMediaImages {
 		// Search for images within the specified date range
 		ImageAlbum matchingImages = myImages.searchDates(startDate, endDate);
 
-		if (matchingImages.getAlbum().size() > 0) {
+		if (matchingImages.size() > 0) {
 			// Display a message and prepare navigation for images found within the date
 			// range
-			mediaCon.println("\n" + matchingImages.getAlbum().size() + " images between " + startDate + " and "
+			mediaCon.println("\n" + matchingImages.size() + " images between " + startDate + " and "
 					+ endDate + " found!");
 			navigateImages(matchingImages);
 		} else {
@@ -609,21 +840,13 @@ public class QUBMediaImages {
 	 * @throws Exception If the provided date is not in the expected format
 	 */
 	public static LocalDate formatDate(String date) throws Exception {
-		// Check if the date string has the expected format (YYYY-MM-DD)
-		if (date != null && date.length() == 10 && (date.charAt(4) == '-' && date.charAt(7) == '-')) {
-			String[] splitDate = date.split("-");
-			try {
-				// Attempt to create a LocalDate object from splitDate
-				LocalDate properDate = LocalDate.of(Integer.parseInt(splitDate[0]), Integer.parseInt(splitDate[1]),
-						Integer.parseInt(splitDate[2]));
-				return properDate;
-			} catch (Exception ex) {
-				// Throw an exception if properDate cannot be created
-				throw new Exception(date);
-			}
-
+		// Parse the date, checking it has the expected format (YYYY-MM-DD)
+		int epochDay = ImageDates.parse(date);
+		if (!ImageDates.isValid(epochDay)) {
+			throw new Exception(date);
 		}
-		throw new Exception(date);
+
+		return LocalDate.ofEpochDay(epochDay);
 	}
 
 	/**
@@ -635,12 +858,40 @@ public class QUBMediaImages {
 		// Get all images from the ImageManager
 		ImageAlbum allImages = myImages.getAllImages();
 
-		// Display the details and photos of all images
-		displayImages(allImages);
+		// Display the details and photos of all images, a chunk at a time
+		if (displayImages(allImages)) {
+			// Display a message once all images have been printed
+			mediaCon.println("All images printed.\n");
+		}
 
-		// Display a message once all images have been printed
-		mediaCon.println("All images printed.\n");
+	}
 
+	/**
+	 * Display how many times each ImageManager operation and thumbnail load has
+	 * run and how long they took, then offer to save the statistics to a file
+	 */
+	public static void displayStatistics() {
+		printIntroMessage("Let's see how the images are performing!");
+
+		// Display the latency table and the thumbnail cache counters
+		mediaCon.println(myImages.getMetrics());
+		mediaCon.println(thumbnails + "\n");
+
+		mediaCon.print("Enter a file name to save the statistics to, or press RETURN to continue: ");
+		String fileName = mediaCon.readLn().trim();
+
+		if (fileName.length() > 0) {
+			try {
+				// Save the table followed by the count of every histogram bucket
+				myImages.getMetrics().dump(Paths.get(fileName));
+				mediaCon.println("Statistics saved to " + fileName + ".\n");
+			} catch (Exception e) {
+				// Handle the case where the file cannot be written
+				Console errorCon = initialiseStandardErrorConsole();
+				errorCon.println("ERROR: Could not save the statistics: " + e.getMessage() + "\n");
+				myImagesMenu.pressReturnToContinue(errorCon, mediaCon);
+			}
+		}
 	}
 
 	/**
@@ -654,23 +905,102 @@ public class QUBMediaImages {
 	}
 
 	/**
-	 * Display images and their details from the provided ImageAlbum collection
+	 * Return the directory path for storing pre-scaled thumbnails. It utilises the
+	 * current working directory and appends the "Thumbnails/" directory to it
+	 *
+	 * @return The directory path for storing pre-scaled thumbnails
+	 */
+	public static String initialiseThumbnailsDirectory() {
+		return System.getProperty("user.dir") + "/Thumbnails/";
+	}
+
+	/**
+	 * Initialise the perceptual hashes of the images directory, hashing every
+	 * image on all available processors. If hashing fails, duplicates are only
+	 * looked for among the images that were hashed
+	 *
+	 * @return The initialised ImageHashes
+	 */
+	public static ImageHashes initialiseImageHashes() {
+		ImageHashes hashes = new ImageHashes(initialiseImagesDirectory());
+		try {
+			hashes.update(Runtime.getRuntime().availableProcessors());
+		} catch (Exception e) {
+			// Handle any exceptions that occur while hashing the images
+			Console errorCon = initialiseStandardErrorConsole();
+			errorCon.print("Could not hash the images: " + e.getMessage());
+		}
+		return hashes;
+	}
+
+	/**
+	 * Initialise a ThumbnailPyramid for the images directory, scaling any images
+	 * that are new or have changed since it was last updated. If updating fails,
+	 * images are displayed from the copies already made or from the originals
+	 *
+	 * @return The initialised ThumbnailPyramid
+	 */
+	public static ThumbnailPyramid initialiseThumbnailPyramid() {
+		ThumbnailPyramid thumbnailPyramid = new ThumbnailPyramid(initialiseImagesDirectory(),
+				initialiseThumbnailsDirectory());
+		try {
+			thumbnailPyramid.update();
+		} catch (Exception e) {
+			// Handle any exceptions that occur while scaling the images
+			Console errorCon = initialiseStandardErrorConsole();
+			errorCon.print("Could not update the thumbnails: " + e.getMessage());
+		}
+		return thumbnailPyramid;
+	}
+
+	/**
+	 * Display images and their details from the provided ImageAlbum collection.
+	 * The images are displayed a chunk at a time, and the user is asked before
+	 * each further chunk, so they can stop part way through. The console is
+	 * cleared between chunks so only the photos of one chunk are kept on it,
+	 * while the photos of the next chunk are decoded in the background
 	 *
 	 * @param collection The ImageAlbum collection containing the images to be
 	 *                   displayed
+	 * @return True if every image was displayed, false if the user stopped
 	 */
-	public static void displayImages(ImageAlbum collection) {
-		for (int i = 0; i < collection.getAlbum().size(); i++) {
-			// Get the thumbnail path for the current image
-			String currentImageThumbnail = collection.getAlbum().get(i).getThumbnail();
+	public static boolean displayImages(ImageAlbum collection) {
+		int size = collection.size();
 
-			// Create an ImageIcon using the thumbnail path
-			ImageIcon img = new ImageIcon(initialiseImagesDirectory() + currentImageThumbnail);
+		for (int start = 0; start < size; start += DISPLAY_CHUNK_SIZE) {
+			int end = Math.min(start + DISPLAY_CHUNK_SIZE, size);
 
-			// Display the image and its details using the mediaCon console
-			mediaCon.println(img);
-			mediaCon.println(collection.getAlbum().get(i).getDetails());
+			// Decode the photos of the next chunk while this one is displayed
+			prefetcher.prefetch(collection, end, end + DISPLAY_CHUNK_SIZE);
+
+			for (int i = start; i < end; i++) {
+				// Get the thumbnail path for the current image
+				String currentImageThumbnail = collection.get(i).getThumbnail();
+
+				// Get the ImageIcon for the thumbnail, decoding it only if it is not cached
+				ImageIcon img = thumbnails.get(currentImageThumbnail);
+
+				// Display the image and its details using the mediaCon console
+				mediaCon.println(img);
+				mediaCon.println(collection.get(i).getDetails());
+			}
+
+			if (end < size) {
+				// Wait for the user before displaying any more images
+				mediaCon.print("Displayed " + end + " of " + size + " images. Press RETURN to display the next "
+						+ Math.min(DISPLAY_CHUNK_SIZE, size - end) + ", or enter 0 to stop: ");
+				if (mediaCon.readLn().trim().equals("0")) {
+					prefetcher.cancelAll();
+					mediaCon.println("Stopped after " + end + " of " + size + " images.\n");
+					return false;
+				}
+
+				// Clear the photos already displayed so they can be freed
+				mediaCon.clear();
+			}
 		}
+
+		return true;
 	}
 
 	/**
@@ -681,11 +1011,9 @@ public class QUBMediaImages {
 	 * @throws Exception if the thumbnail file is not found
 	 */
 	public static boolean isThumbnailFileExists(String thumbnailTitle) throws Exception {
-		// Get the thumbnail path for the current image
-		String thumbnailPath = initialiseImagesDirectory() + thumbnailTitle;
-
-		// Attempt to create an ImageIcon using the thumbnail path
-		ImageIcon img = new ImageIcon(thumbnailPath);
+		// Attempt to load an ImageIcon for the thumbnail, which also caches it for
+		// when the new image is displayed
+		ImageIcon img = thumbnails.get(thumbnailTitle);
 
 		// Check if the icon height is valid
 		if (img.getIconHeight() == -1) {
@@ -698,15 +1026,48 @@ public class QUBMediaImages {
 	}
 
 	/**
-	 * Initialise an ImageManager with sample images
+	 * Return the path of the catalogue file images are saved to. It utilises the
+	 * current working directory
 	 *
-	 * @return The initialised ImageManager containing sample images
+	 * @return The path of the catalogue file
+	 */
+	public static String initialiseCatalogueFile() {
+		return System.getProperty("user.dir") + "/catalogue.dat";
+	}
+
+	/**
+	 * Initialise an ImageManager with the images saved in the catalogue file. On
+	 * the first run, when the catalogue is empty, it is filled with sample images
+	 *
+	 * @return The initialised ImageManager containing the saved or sample images
 	 */
 	public static ImageManager initialiseImageManager() {
+		ImageManager someImages;
+		boolean isEmpty;
 		try {
-			// Create a new ImageManager instance
-			ImageManager someImages = new ImageManager();
+			// Open the catalogue file, which is created if it does not exist yet
+			ImageCatalogue catalogue = ImageCatalogue.open(Paths.get(initialiseCatalogueFile()));
+
+			// Create a new ImageManager instance holding the saved images
+			someImages = new ImageManager(catalogue);
+			isEmpty = catalogue.size() == 0;
+		} catch (Exception e) {
+			// Keep the images in memory instead, so the application can still be used
+			Console errorCon = initialiseStandardErrorConsole();
+			errorCon.println("Could not open the catalogue, so images will not be saved: " + e.getMessage());
+			someImages = new ImageManager();
+			isEmpty = true;
+		}
+
+		// Keep the hashes of the thumbnails so duplicates can be found
+		someImages.setImageHashes(imageHashes);
 
+		// Only add the sample images to an empty catalogue
+		if (!isEmpty) {
+			return someImages;
+		}
+
+		try {
 			// Create and add sample images to the ImageManager
 			ImageRecord image1 = new ImageRecord("Andromeda Galaxy", "Image of the Andromeda galaxy.", "Astronomy",
 					"2023-01-01", "Andromeda.png");
@@ -742,18 +1103,12 @@ public class QUBMediaImages {
 			ImageRecord image9 = new ImageRecord("Programming Meme", "A Chat GPT programming meme.", "Other",
 					"2022-12-31", "ChatGPT.png");
 			someImages.addImage(image9);
-
-			return someImages;
-
 		} catch (Exception e) {
-			// Handle any exceptions that occur during initialisation
+			// The saved images are still usable without the samples
 			Console errorCon = initialiseStandardErrorConsole();
-			errorCon.print(e.getMessage());
-			myImagesMenu.pressReturnToContinue(errorCon, mediaCon);
-
+			errorCon.println("Could not add the sample images: " + e.getMessage());
 		}
 
-		// Return null if initialisation fails
-		return null;
+		return someImages;
 	}
 }
\ No newline at end of file
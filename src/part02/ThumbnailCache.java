@@ -0,0 +1,199 @@
+package part02;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+import part01.ImageMetrics;
+import part01.LatencyHistogram;
+
+/**
+ * The ThumbnailCache class keeps recently displayed thumbnails decoded in
+ * memory, so showing the same image again does not decode its file again. The
+ * cache is bounded by the number of bytes the decoded images take up rather
+ * than by the number of images, and the least recently used images are evicted
+ * first once it is full
+ */
+public class ThumbnailCache {
+
+	// Bytes taken up by each decoded pixel
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private String directory; // The directory the thumbnail files are in
+	private ThumbnailPyramid pyramid; // Pre-scaled copies to load from, or null
+	private int maxWidth; // Largest width a thumbnail is displayed at
+	private int maxHeight; // Largest height a thumbnail is displayed at
+	private long maxBytes; // Largest number of decoded bytes to keep
+	private long bytes; // Number of decoded bytes currently kept
+
+	// Decoded thumbnails by file name, from least to most recently used
+	private LinkedHashMap<String, ImageIcon> icons;
+
+	private long hits; // Number of thumbnails found in the cache
+	private long misses; // Number of thumbnails that had to be decoded
+	private long evictions; // Number of thumbnails evicted to make room
+
+	// Times taken to decode thumbnails that were not cached, or null if not timed
+	private LatencyHistogram loadTimes;
+
+	/**
+	 * Constructor for the ThumbnailCache class
+	 *
+	 * @param directory The directory the thumbnail files are in
+	 * @param maxBytes  The largest number of decoded bytes to keep
+	 */
+	public ThumbnailCache(String directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.icons = new LinkedHashMap<String, ImageIcon>(16, 0.75f, true);
+	}
+
+	/**
+	 * Constructor for a ThumbnailCache that loads each thumbnail from the largest
+	 * pre-scaled copy that fits the space it is displayed in
+	 *
+	 * @param pyramid   The ThumbnailPyramid holding the pre-scaled copies
+	 * @param maxWidth  The largest width a thumbnail is displayed at
+	 * @param maxHeight The largest height a thumbnail is displayed at
+	 * @param maxBytes  The largest number of decoded bytes to keep
+	 */
+	public ThumbnailCache(ThumbnailPyramid pyramid, int maxWidth, int maxHeight, long maxBytes) {
+		this(null, maxBytes);
+		this.pyramid = pyramid;
+		this.maxWidth = maxWidth;
+		this.maxHeight = maxHeight;
+	}
+
+	/**
+	 * Get the decoded thumbnail for a file, decoding it if it is not cached
+	 *
+	 * @param fileName The name of the thumbnail file
+	 * @return The ImageIcon for the file. Its height is -1 if the file could not
+	 *         be loaded
+	 */
+	public ImageIcon get(String fileName) {
+		synchronized (this) {
+			ImageIcon icon = this.icons.get(fileName);
+			if (icon != null) {
+				this.hits++;
+				return icon;
+			}
+			this.misses++;
+		}
+
+		// Decode outside the lock so other thumbnails can still be read meanwhile
+		long started = System.nanoTime();
+		String path = this.pyramid == null ? this.directory + fileName
+				: this.pyramid.resolve(fileName, this.maxWidth, this.maxHeight);
+		ImageIcon icon = new ImageIcon(path);
+		if (this.loadTimes != null) {
+			this.loadTimes.recordSince(started);
+		}
+
+		// Files that could not be loaded are not kept, so they are tried again
+		if (icon.getIconHeight() != -1) {
+			put(fileName, icon);
+		}
+
+		return icon;
+	}
+
+	/**
+	 * Time how long thumbnails that were not cached take to decode, as the
+	 * "thumbnail load" operation of an ImageMetrics
+	 *
+	 * @param metrics The ImageMetrics to record the times in
+	 */
+	public void setMetrics(ImageMetrics metrics) {
+		this.loadTimes = metrics.histogram("thumbnail load");
+	}
+
+	/**
+	 * Check whether a thumbnail is cached, without counting it as a use
+	 *
+	 * @param fileName The name of the thumbnail file
+	 * @return True if the thumbnail is cached, false otherwise
+	 */
+	public synchronized boolean contains(String fileName) {
+		return this.icons.containsKey(fileName);
+	}
+
+	/**
+	 * Get the number of thumbnails found in the cache
+	 *
+	 * @return The number of cache hits
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * Get the number of thumbnails that had to be decoded
+	 *
+	 * @return The number of cache misses
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * Get the number of thumbnails evicted to make room for others
+	 *
+	 * @return The number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * Get the number of decoded bytes currently kept
+	 *
+	 * @return The size of the cache in bytes
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * Return a string summarising the use of the cache
+	 *
+	 * @return A string with the cache counters
+	 */
+	public synchronized String toString() {
+		return "Thumbnail cache: " + this.icons.size() + " images, " + (this.bytes / 1024) + " of "
+				+ (this.maxBytes / 1024) + " KB, " + this.hits + " hits, " + this.misses + " misses, "
+				+ this.evictions + " evictions";
+	}
+
+	/*
+	 * Add a decoded thumbnail, evicting the least recently used ones until the
+	 * cache is within its size
+	 */
+	private synchronized void put(String fileName, ImageIcon icon) {
+		long size = sizeOf(icon);
+
+		// A thumbnail larger than the whole cache is not kept at all
+		if (size > this.maxBytes || this.icons.containsKey(fileName)) {
+			return;
+		}
+
+		this.icons.put(fileName, icon);
+		this.bytes += size;
+
+		Iterator<Map.Entry<String, ImageIcon>> eldest = this.icons.entrySet().iterator();
+		while (this.bytes > this.maxBytes && eldest.hasNext()) {
+			this.bytes -= sizeOf(eldest.next().getValue());
+			eldest.remove();
+			this.evictions++;
+		}
+	}
+
+	/*
+	 * Get the number of bytes a decoded thumbnail takes up
+	 */
+	private static long sizeOf(ImageIcon icon) {
+		return (long) icon.getIconWidth() * icon.getIconHeight() * BYTES_PER_PIXEL;
+	}
+}
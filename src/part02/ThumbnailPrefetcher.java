@@ -0,0 +1,124 @@
+package part02;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import part01.ImageAlbum;
+
+/**
+ * The ThumbnailPrefetcher class decodes the thumbnails either side of the image
+ * being displayed in an ImageAlbum on background threads, so they are already
+ * in the ThumbnailCache when the user moves to the next or previous image.
+ * Prefetches for images that are no longer near the current one are cancelled
+ */
+public class ThumbnailPrefetcher {
+
+	private ThumbnailCache cache; // The cache the thumbnails are decoded into
+	private int radius; // Number of images to prefetch either side of the current one
+	private ExecutorService executor; // Threads decoding the thumbnails
+
+	// Prefetches not yet finished, by thumbnail file name
+	private HashMap<String, Future<?>> pending;
+
+	/**
+	 * Constructor for the ThumbnailPrefetcher class
+	 *
+	 * @param cache   The ThumbnailCache to decode the thumbnails into
+	 * @param radius  The number of images to prefetch either side of the current
+	 *                one
+	 * @param threads The number of background threads to decode with
+	 */
+	public ThumbnailPrefetcher(ThumbnailCache cache, int radius, int threads) {
+		this.cache = cache;
+		this.radius = radius;
+		this.pending = new HashMap<String, Future<?>>();
+
+		// Use daemon threads so unfinished prefetches do not stop the program exiting
+		this.executor = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "thumbnail-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Prefetch the thumbnails around the current image of an album, nearest
+	 * first, and cancel any earlier prefetches outside that range
+	 *
+	 * @param album The ImageAlbum being navigated
+	 */
+	public synchronized void prefetch(ImageAlbum album) {
+		int current = Math.max(album.getCurrentImageValue(), 0);
+		int size = album.size();
+
+		// Collect the neighbouring thumbnails, alternating after and before
+		ArrayList<String> wanted = new ArrayList<String>();
+		for (int distance = 1; distance <= this.radius; distance++) {
+			if (current + distance < size) {
+				wanted.add(album.get(current + distance).getThumbnail());
+			}
+			if (current - distance >= 0) {
+				wanted.add(album.get(current - distance).getThumbnail());
+			}
+		}
+
+		request(wanted);
+	}
+
+	/**
+	 * Prefetch the thumbnails of a range of an album, such as the next chunk of
+	 * images to be displayed, and cancel any earlier prefetches outside it
+	 *
+	 * @param album The ImageAlbum being displayed
+	 * @param from  The index of the first image to prefetch
+	 * @param to    The index after the last image to prefetch
+	 */
+	public synchronized void prefetch(ImageAlbum album, int from, int to) {
+		ArrayList<String> wanted = new ArrayList<String>();
+		for (int i = Math.max(from, 0); i < Math.min(to, album.size()); i++) {
+			wanted.add(album.get(i).getThumbnail());
+		}
+
+		request(wanted);
+	}
+
+	/**
+	 * Cancel every prefetch that has not finished
+	 */
+	public synchronized void cancelAll() {
+		for (Future<?> task : this.pending.values()) {
+			task.cancel(true);
+		}
+		this.pending.clear();
+	}
+
+	/*
+	 * Start decoding the wanted thumbnails, in order, and cancel the prefetches of
+	 * any others
+	 */
+	private void request(ArrayList<String> wanted) {
+		// Cancel the prefetches of images the user has moved away from
+		Iterator<Map.Entry<String, Future<?>>> entries = this.pending.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, Future<?>> entry = entries.next();
+			if (entry.getValue().isDone()) {
+				entries.remove();
+			} else if (!wanted.contains(entry.getKey())) {
+				entry.getValue().cancel(true);
+				entries.remove();
+			}
+		}
+
+		// Start decoding the neighbours that are neither cached nor being decoded
+		for (String thumbnail : wanted) {
+			if (!this.cache.contains(thumbnail) && !this.pending.containsKey(thumbnail)) {
+				this.pending.put(thumbnail, this.executor.submit(() -> this.cache.get(thumbnail)));
+			}
+		}
+	}
+}
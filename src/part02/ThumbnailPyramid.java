@@ -0,0 +1,322 @@
+package part02;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The ThumbnailPyramid class keeps pre-scaled copies of each image in the
+ * images directory in a cache directory, at a few fixed sizes, so an image can
+ * be displayed without decoding and scaling down the full resolution file
+ * every time. Each size is scaled from the next larger one, and an image is
+ * only stored at the sizes smaller than the original.
+ *
+ * An index file in the cache directory records the modification time, length
+ * and content hash of every image it has scaled. Updating only rescales an
+ * image if its time or length changed and its content hash differs, so copying
+ * or touching a file does not cause it to be rescaled
+ */
+public class ThumbnailPyramid {
+
+	// Longest edge of each pre-scaled size, from smallest to largest
+	private static final int[] SIZES = { 160, 320, 640, 1280 };
+
+	// Name of the index file in the cache directory
+	private static final String INDEX_FILE = "pyramid.index";
+
+	private Path source; // The directory the original images are in
+	private Path cache; // The directory the pre-scaled images are kept in
+
+	// What is known of each image, by file name
+	private HashMap<String, Original> entries;
+
+	/**
+	 * Constructor for the ThumbnailPyramid class, reading the index of any images
+	 * already scaled
+	 *
+	 * @param sourceDirectory The directory the original images are in
+	 * @param cacheDirectory  The directory to keep the pre-scaled images in
+	 */
+	public ThumbnailPyramid(String sourceDirectory, String cacheDirectory) {
+		this.source = Paths.get(sourceDirectory);
+		this.cache = Paths.get(cacheDirectory);
+		this.entries = new HashMap<String, Original>();
+		readIndex();
+	}
+
+	/**
+	 * Scale every image that is new or has changed since the last update, and
+	 * remove the scaled copies of images that no longer exist
+	 *
+	 * @return The number of images that were scaled
+	 * @throws IOException If the images cannot be listed or the scaled copies
+	 *                     cannot be written
+	 */
+	public synchronized int update() throws IOException {
+		ArrayList<String> names = new ArrayList<String>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(this.source)) {
+			for (Path file : files) {
+				if (Files.isRegularFile(file) && !file.getFileName().toString().startsWith(".")) {
+					names.add(file.getFileName().toString());
+				}
+			}
+		}
+
+		int scaled = 0;
+		for (String name : names) {
+			if (update(name)) {
+				scaled++;
+			}
+		}
+
+		// Forget the images that have been deleted
+		for (String name : new ArrayList<String>(this.entries.keySet())) {
+			if (!names.contains(name)) {
+				deleteLevels(name);
+				this.entries.remove(name);
+			}
+		}
+
+		writeIndex();
+		return scaled;
+	}
+
+	/**
+	 * Get the path of the largest copy of an image that fits within a size. An
+	 * image that has not been scaled is always loaded from the original file
+	 *
+	 * @param fileName  The name of the image file
+	 * @param maxWidth  The largest width that fits
+	 * @param maxHeight The largest height that fits
+	 * @return The path of the file to load the image from
+	 */
+	public synchronized String resolve(String fileName, int maxWidth, int maxHeight) {
+		Original entry = this.entries.get(fileName);
+		if (entry == null || entry.width <= 0) {
+			return this.source.resolve(fileName).toString();
+		}
+
+		// Use the original if it already fits
+		if (entry.width <= maxWidth && entry.height <= maxHeight) {
+			return this.source.resolve(fileName).toString();
+		}
+
+		// Otherwise use the largest copy that fits, or the smallest if none do
+		int level = 0;
+		for (int i = SIZES.length - 1; i > 0; i--) {
+			int[] size = scaledSize(entry, SIZES[i]);
+			if (size[0] <= maxWidth && size[1] <= maxHeight) {
+				level = i;
+				break;
+			}
+		}
+
+		// An image already smaller than the chosen size has no copy at it
+		int[] size = scaledSize(entry, SIZES[level]);
+		if (size[0] == entry.width && size[1] == entry.height) {
+			return this.source.resolve(fileName).toString();
+		}
+
+		return levelFile(level, fileName).toString();
+	}
+
+	/*
+	 * Scale one image if it is new or has changed, returning true if it was
+	 */
+	private boolean update(String name) throws IOException {
+		Path file = this.source.resolve(name);
+		long modified = Files.getLastModifiedTime(file).toMillis();
+		long length = Files.size(file);
+
+		Original entry = this.entries.get(name);
+		if (entry != null && entry.modified == modified && entry.length == length) {
+			return false;
+		}
+
+		// The time alone may have changed, in which case the copies are still valid
+		byte[] bytes = Files.readAllBytes(file);
+		String hash = hash(bytes);
+		if (entry != null && entry.hash.equals(hash)) {
+			entry.modified = modified;
+			entry.length = length;
+			return false;
+		}
+
+		deleteLevels(name);
+		entry = new Original(modified, length, hash);
+		this.entries.put(name, entry);
+
+		// Animated GIFs would lose every frame but the first, so they are not scaled
+		BufferedImage image = name.toLowerCase().endsWith(".gif") ? null
+				: ImageIO.read(new ByteArrayInputStream(bytes));
+		if (image == null) {
+			return false;
+		}
+		entry.width = image.getWidth();
+		entry.height = image.getHeight();
+
+		// Scale each size from the next larger one, starting from the original
+		for (int level = SIZES.length - 1; level >= 0; level--) {
+			int[] size = scaledSize(entry, SIZES[level]);
+			if (size[0] < image.getWidth() || size[1] < image.getHeight()) {
+				image = scale(image, size[0], size[1]);
+			}
+			if (size[0] < entry.width || size[1] < entry.height) {
+				Path target = levelFile(level, name);
+				Files.createDirectories(target.getParent());
+				ImageIO.write(image, "png", target.toFile());
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * Get the size of an image scaled so its longest edge is at most a length
+	 */
+	private static int[] scaledSize(Original entry, int longest) {
+		double scale = Math.min(1.0, (double) longest / Math.max(entry.width, entry.height));
+		return new int[] { Math.max(1, (int) Math.round(entry.width * scale)),
+				Math.max(1, (int) Math.round(entry.height * scale)) };
+	}
+
+	/*
+	 * Scale an image down, halving it at most at each step so bilinear filtering
+	 * still takes every source pixel into account
+	 */
+	private static BufferedImage scale(BufferedImage image, int width, int height) {
+		BufferedImage result = image;
+		int w = image.getWidth();
+		int h = image.getHeight();
+
+		do {
+			w = Math.max(width, w / 2);
+			h = Math.max(height, h / 2);
+
+			BufferedImage step = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = step.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(result, 0, 0, w, h, null);
+			g.dispose();
+			result = step;
+		} while (w != width || h != height);
+
+		return result;
+	}
+
+	/*
+	 * Get the path of the copy of an image at a level
+	 */
+	private Path levelFile(int level, String name) {
+		return this.cache.resolve(Integer.toString(SIZES[level])).resolve(name + ".png");
+	}
+
+	/*
+	 * Delete every scaled copy of an image
+	 */
+	private void deleteLevels(String name) throws IOException {
+		for (int level = 0; level < SIZES.length; level++) {
+			Files.deleteIfExists(levelFile(level, name));
+		}
+	}
+
+	/*
+	 * Read the index of the images already scaled. A missing or unreadable index
+	 * means every image is scaled again
+	 */
+	private void readIndex() {
+		Path index = this.cache.resolve(INDEX_FILE);
+		if (!Files.exists(index)) {
+			return;
+		}
+
+		try {
+			List<String> lines = Files.readAllLines(index, StandardCharsets.UTF_8);
+			for (String line : lines) {
+				String[] fields = line.split("\t");
+				if (fields.length == 6) {
+					Original entry = new Original(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+					entry.width = Integer.parseInt(fields[4]);
+					entry.height = Integer.parseInt(fields[5]);
+					this.entries.put(fields[0], entry);
+				}
+			}
+		} catch (IOException | NumberFormatException ex) {
+			this.entries.clear();
+		}
+	}
+
+	/*
+	 * Write the index to a temporary file and move it into place, so a failed
+	 * write leaves the previous index intact
+	 */
+	private void writeIndex() throws IOException {
+		Files.createDirectories(this.cache);
+		Path index = this.cache.resolve(INDEX_FILE);
+		Path temporary = this.cache.resolve(INDEX_FILE + ".tmp");
+
+		try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, Original> entry : this.entries.entrySet()) {
+				Original value = entry.getValue();
+				writer.write(entry.getKey() + "\t" + value.modified + "\t" + value.length + "\t" + value.hash + "\t"
+						+ value.width + "\t" + value.height);
+				writer.newLine();
+			}
+		}
+
+		Files.move(temporary, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/*
+	 * Calculate the SHA-256 hash of the content of a file as hexadecimal
+	 */
+	private static String hash(byte[] bytes) {
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/*
+	 * What is known of one original image
+	 */
+	private static class Original {
+		private long modified; // Modification time of the original, in milliseconds
+		private long length; // Length of the original in bytes
+		private String hash; // Content hash of the original
+		private int width; // Width of the original, or 0 if it is not scaled
+		private int height; // Height of the original, or 0 if it is not scaled
+
+		/*
+		 * Constructor for an Original
+		 */
+		private Original(long modified, long length, String hash) {
+			this.modified = modified;
+			this.length = length;
+			this.hash = hash;
+		}
+	}
+}